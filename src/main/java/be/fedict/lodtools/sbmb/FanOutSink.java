@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb;
+
+import be.fedict.lodtools.sbmb.helper.LegalDoc;
+import be.fedict.lodtools.sbmb.helper.LegalDocBatch;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sink passing legal documents to several other sinks (e.g. RDF and CSV) in parallel.
+ * 
+ * Documents are collected into batches, each batch is handed to all sinks.
+ * A sink receives the batches one at a time and in order, but different sinks work concurrently.
+ * Only a limited number of batches can be in progress, adding documents blocks until
+ * the slowest sink has caught up.
+ * 
+ * @author Bart.Hanssens
+ */
+public class FanOutSink implements LegalDocWriter.Sink {
+	private final static int BATCH_SIZE = 512;
+	private final static int MAX_BATCHES = 4;
+	
+	private final ExecutorService pool;
+	private final List<LegalDocWriter.Sink> sinks;
+	private final List<CompletableFuture<Void>> tails;
+	private final Semaphore permits = new Semaphore(MAX_BATCHES);
+	private LegalDocBatch batch = new LegalDocBatch(BATCH_SIZE);
+	private volatile IOException error;
+
+	/**
+	 * Write batch to one sink, unless a previous batch failed
+	 * 
+	 * @param sink sink
+	 * @param docs batch
+	 */
+	private void write(LegalDocWriter.Sink sink, LegalDocBatch docs) {
+		if (error != null) {
+			return;
+		}
+		try {
+			sink.add(docs);
+		} catch (IOException ioe) {
+			error = ioe;
+		} catch (UncheckedIOException uioe) {
+			error = uioe.getCause();
+		}
+	}
+
+	/**
+	 * Hand over a batch to all sinks, waiting when too many batches are in progress
+	 * 
+	 * @param docs batch
+	 * @throws IOException
+	 */
+	private void dispatch(LegalDocBatch docs) throws IOException {
+		if (error != null) {
+			throw new IOException("Writing failed: " + error.getMessage(), error);
+		}
+		if (docs.size() == 0) {
+			return;
+		}
+		try {
+			permits.acquire();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for writers");
+		}
+		CompletableFuture<?>[] parts = new CompletableFuture<?>[sinks.size()];
+		for (int i = 0; i < sinks.size(); i++) {
+			LegalDocWriter.Sink sink = sinks.get(i);
+			CompletableFuture<Void> next = tails.get(i).thenRunAsync(() -> write(sink, docs), pool);
+			tails.set(i, next);
+			parts[i] = next;
+		}
+		CompletableFuture.allOf(parts).whenComplete((v, t) -> permits.release());
+	}
+
+	@Override
+	public void add(LegalDoc doc) throws IOException {
+		batch.add(doc);
+		if (batch.size() >= BATCH_SIZE) {
+			dispatch(batch);
+			batch = new LegalDocBatch(BATCH_SIZE);
+		}
+	}
+
+	@Override
+	public void add(LegalDocBatch docs) throws IOException {
+		dispatch(batch);
+		batch = new LegalDocBatch(BATCH_SIZE);
+		dispatch(docs);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			dispatch(batch);
+		} finally {
+			batch = null;
+			try {
+				CompletableFuture.allOf(tails.toArray(new CompletableFuture<?>[0])).join();
+			} catch (CompletionException ce) {
+				if (error == null) {
+					error = new IOException(ce.getCause());
+				}
+			}
+			for (LegalDocWriter.Sink sink: sinks) {
+				try {
+					sink.close();
+				} catch (IOException ioe) {
+					if (error == null) {
+						error = ioe;
+					}
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param pool thread pool running the sinks
+	 * @param sinks sinks
+	 */
+	public FanOutSink(ExecutorService pool, LegalDocWriter.Sink... sinks) {
+		this.pool = pool;
+		this.sinks = List.of(sinks);
+		this.tails = new ArrayList<>();
+		for (int i = 0; i < sinks.length; i++) {
+			tails.add(CompletableFuture.completedFuture(null));
+		}
+	}
+}
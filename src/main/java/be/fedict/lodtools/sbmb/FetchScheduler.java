@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb;
+
+import be.fedict.lodtools.sbmb.helper.CrawlController;
+import be.fedict.lodtools.sbmb.helper.Page;
+import be.fedict.lodtools.sbmb.helper.PageMeta;
+import be.fedict.lodtools.sbmb.helper.RetryAfterException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.HttpStatusException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetch pages in parallel, while limiting the number of requests per host.
+ * The rate is adapted to the response times and errors of each host,
+ * failed requests are retried a few times.
+ * 
+ * @author Bart.Hanssens
+ */
+public class FetchScheduler implements AutoCloseable {
+	private final static Logger LOG = LoggerFactory.getLogger(FetchScheduler.class);
+
+	private final static int TRIES = 5;
+	private final static long MAX_WAIT = 300_000;
+	private final static long SLOW = 10_000;
+	private final static long CLOSE_WAIT = 10_000;
+
+	private final PageParser parser;
+	private final long wait;
+	private final long minWait;
+	private final ExecutorService pool;
+	private final CompletionService<Page> done;
+	private final Map<String,CrawlController> controllers = new ConcurrentHashMap<>();
+	private int pending = 0;
+
+	/**
+	 * Get crawl controller for the host of a URL
+	 * 
+	 * @param url URL
+	 * @return crawl controller
+	 */
+	private CrawlController getController(String url) {
+		String host = URI.create(url).getHost();
+		return controllers.computeIfAbsent(host == null ? "" : host, 
+								h -> new CrawlController(wait, minWait, MAX_WAIT, SLOW));
+	}
+
+	/**
+	 * Check if a request may succeed when trying again
+	 * 
+	 * @param ex exception
+	 * @return true when timed out, connection failed or dropped, server error or too many requests
+	 */
+	private static boolean isTransient(IOException ex) {
+		if (ex instanceof HttpStatusException) {
+			int status = ((HttpStatusException) ex).getStatusCode();
+			return status >= 500 || status == 429;
+		}
+		// HTTP client reports dropped connections as plain IOException, e.g. "closed"
+		return ex instanceof SocketTimeoutException || ex instanceof HttpTimeoutException
+				|| ex instanceof SocketException || ex instanceof EOFException
+				|| ex.getClass() == IOException.class;
+	}
+
+	/**
+	 * Fetch a page, retrying on timeouts, connection and server errors.
+	 * When the server asks to wait (Retry-After), no requests are sent to that host until then.
+	 * 
+	 * @param controller crawl controller for this host
+	 * @param base base URL
+	 * @param type legal type
+	 * @param year year
+	 * @param lang language code
+	 * @param prev cache validators of previous fetch, or null
+	 * @return page
+	 * @throws IOException
+	 * @throws InterruptedException 
+	 */
+	private Page fetch(CrawlController controller, String base, String type, int year, 
+					String lang, PageMeta prev) throws IOException, InterruptedException {
+		for (int i = 1; ; i++) {
+			controller.acquire();
+			LOG.info("Get page for year {} ({})", year, lang);
+			try {
+				Page page = parser.get(base, type, year, lang, prev);
+				controller.success(page.getLatency());
+				return page;
+			} catch (IOException ex) {
+				if (!isTransient(ex) || i >= TRIES) {
+					throw ex;
+				}
+				LOG.warn("Attempt {} for {}/{} failed: {}", i, type, year, ex.getMessage());
+				controller.failure();
+				if (ex instanceof RetryAfterException) {
+					long delay = ((RetryAfterException) ex).getDelay();
+					if (delay > 0) {
+						LOG.warn("Retry after {} ms", delay);
+						controller.pause(delay);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Schedule a page to be fetched
+	 * 
+	 * @param base base URL
+	 * @param type legal type
+	 * @param year year
+	 * @param lang language code
+	 * @param prev cache validators of previous fetch, or null
+	 */
+	public void submit(String base, String type, int year, String lang, PageMeta prev) {
+		CrawlController controller = getController(base);
+		done.submit(() -> fetch(controller, base, type, year, lang, prev));
+		pending++;
+	}
+
+	/**
+	 * Get the next fetched page, in order of completion
+	 * 
+	 * @return page or null when there are no more pages scheduled
+	 * @throws IOException
+	 * @throws InterruptedException 
+	 */
+	public Page take() throws IOException, InterruptedException {
+		if (pending == 0) {
+			return null;
+		}
+		pending--;
+		try {
+			return done.take().get();
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Stop fetching, and delete temporary files of pages that were fetched but never taken
+	 */
+	@Override
+	public void close() {
+		pool.shutdownNow();
+		try {
+			// running fetches are interrupted, but may still complete
+			if (!pool.awaitTermination(CLOSE_WAIT, TimeUnit.MILLISECONDS)) {
+				LOG.warn("Fetches still running after {} ms", CLOSE_WAIT);
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		Future<Page> f;
+		while ((f = done.poll()) != null) {
+			try (Page page = f.get()) {
+				LOG.debug("Discarding {}", page.getUrl());
+			} catch (ExecutionException | InterruptedException ex) {
+				// failed or cancelled, so nothing to clean up
+			} catch (IOException ioe) {
+				LOG.warn("Could not delete temporary file: {}", ioe.getMessage());
+			}
+		}
+		pending = 0;
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param parser page parser
+	 * @param threads number of requests running in parallel
+	 * @param wait initial time between two requests to the same host, in milliseconds
+	 * @param minWait minimum time between two requests to the same host, in milliseconds
+	 */
+	public FetchScheduler(PageParser parser, int threads, long wait, long minWait) {
+		this.parser = parser;
+		this.wait = wait;
+		this.minWait = minWait;
+		this.pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		this.done = new ExecutorCompletionService<>(pool);
+	}
+}
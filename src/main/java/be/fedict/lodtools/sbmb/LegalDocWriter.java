@@ -26,10 +26,11 @@
 package be.fedict.lodtools.sbmb;
 
 import be.fedict.lodtools.sbmb.helper.LegalDoc;
+import be.fedict.lodtools.sbmb.helper.LegalDocBatch;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -40,15 +41,52 @@ import java.util.Map;
 public interface LegalDocWriter {
 
 	/**
-	 * Write (titles of) legal documents to a file
+	 * Receives legal documents one by one, and writes them to a file
+	 */
+	public interface Sink extends Closeable {
+		/**
+		 * Add (title of) a legal document
+		 * 
+		 * @param doc legal document
+		 * @throws IOException 
+		 */
+		public void add(LegalDoc doc) throws IOException;
+
+		/**
+		 * Add (title of) a legal document, directly from a row in a batch
+		 * 
+		 * @param docs batch of legal documents
+		 * @param row row number
+		 * @throws IOException 
+		 */
+		public default void add(LegalDocBatch docs, int row) throws IOException {
+			add(docs.get(row));
+		}
+
+		/**
+		 * Add (titles of) all legal documents in a batch
+		 * 
+		 * @param docs batch of legal documents
+		 * @throws IOException 
+		 */
+		public default void add(LegalDocBatch docs) throws IOException {
+			for (int i = 0; i < docs.size(); i++) {
+				add(docs, i);
+			}
+		}
+	}
+
+	/**
+	 * Open a sink for writing (titles of) legal documents to a file.
+	 * The file is only created when at least one document is added.
 	 *
-	 * @param docs list of legaldocs
 	 * @param outfile output file
 	 * @param year year
 	 * @param type common type
 	 * @param types language-specific types
+	 * @return sink, to be closed after use
 	 * @throws IOException
 	 */
-	public void write(List<LegalDoc> docs, Path outfile, int year, String type, 
-								Map<String,String> types) throws IOException;
+	public Sink open(Path outfile, int year, String type, Map<String,String> types) 
+																throws IOException;
 }
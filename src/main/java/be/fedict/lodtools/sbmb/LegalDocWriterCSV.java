@@ -25,18 +25,24 @@
  */
 package be.fedict.lodtools.sbmb;
 
+import be.fedict.lodtools.sbmb.helper.Compression;
 import be.fedict.lodtools.sbmb.helper.LegalDoc;
-import com.opencsv.CSVWriter;
+import be.fedict.lodtools.sbmb.helper.LegalDocBatch;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.time.LocalDate;
+import java.nio.file.StandardOpenOption;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,62 +50,276 @@ import org.slf4j.LoggerFactory;
 /**
  * Writer legaldoc objects to file system.
  * 
+ * Fields are only quoted when needed, i.e. when they contain a comma, double quote or line break.
+ * 
  * @author Bart.Hanssens
  */
 public class LegalDocWriterCSV implements LegalDocWriter {
 	private final static Logger LOG = LoggerFactory.getLogger(LegalDocWriterCSV.class);
 	
+	private final static int SIZE = 64 * 1024;
+	private final static String[] HEADER = { "ID", "JUSTEL", "DOCTYPE", "NUMAC",
+											"DOCDATE", "PUBDATE", "LANG", 
+											"TYPE" , "SOURCE", "TITLE" };
+	
+	private final Compression compression;
+	private final ExecutorService pool;
+	
 	/**
-	 * Convert LocalDate to date value
-	 * 
-	 * @param d local date
-	 * @return string
+	 * Sink writing one CSV row per legal document
 	 */
-	private String toDate(LocalDate d) {
-		if (d == null) {
-			return null;
+	private class CSVSink implements Sink {
+		private final Path outfile;
+		private final int year;
+		private final String type;
+		private final Map<String,String> types;
+		private final Map<Integer,byte[]> dates = new HashMap<>();
+		private WritableByteChannel ch;
+		private ByteBuffer buf;
+
+		/**
+		 * Create file and write header
+		 * 
+		 * @throws IOException 
+		 */
+		private void create() throws IOException {
+			File dir = outfile.getParent().toFile();
+			if (!dir.exists() && !dir.mkdirs()) {
+				LOG.error("Directory {} not writable", dir);
+			}
+			ch = (compression == Compression.NONE)
+				? FileChannel.open(outfile, StandardOpenOption.CREATE, 
+							StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+				: Channels.newChannel(compression.open(outfile, pool));
+			buf = ByteBuffer.allocate(SIZE);
+			
+			for (int i = 0; i < HEADER.length; i++) {
+				field(i, HEADER[i]);
+			}
+			put('\n');
+		}
+
+		/**
+		 * Write buffer to file (or compressor)
+		 * 
+		 * @throws IOException 
+		 */
+		private void drain() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining()) {
+				ch.write(buf);
+			}
+			buf.clear();
+		}
+
+		/**
+		 * Write one byte
+		 * 
+		 * @param b byte
+		 * @throws IOException 
+		 */
+		private void put(int b) throws IOException {
+			if (!buf.hasRemaining()) {
+				drain();
+			}
+			buf.put((byte) b);
+		}
+
+		/**
+		 * Write bytes
+		 * 
+		 * @param b bytes
+		 * @throws IOException 
+		 */
+		private void put(byte[] b) throws IOException {
+			if (buf.remaining() < b.length) {
+				drain();
+			}
+			buf.put(b);
+		}
+
+		/**
+		 * Write string as UTF-8, doubling double quotes when quoted
+		 * 
+		 * @param str string
+		 * @param quoted true when inside quotes
+		 * @throws IOException 
+		 */
+		private void put(String str, boolean quoted) throws IOException {
+			int len = str.length();
+			for (int i = 0; i < len; i++) {
+				char c = str.charAt(i);
+				if (c < 0x80) {
+					if (c == '"' && quoted) {
+						put('"');
+					}
+					put(c);
+				} else if (c < 0x800) {
+					put(0xC0 | (c >> 6));
+					put(0x80 | (c & 0x3F));
+				} else if (Character.isSurrogate(c)) {
+					if (!Character.isHighSurrogate(c) || i + 1 >= len 
+							|| !Character.isLowSurrogate(str.charAt(i + 1))) {
+						throw new MalformedInputException(1);
+					}
+					int cp = Character.toCodePoint(c, str.charAt(++i));
+					put(0xF0 | (cp >> 18));
+					put(0x80 | ((cp >> 12) & 0x3F));
+					put(0x80 | ((cp >> 6) & 0x3F));
+					put(0x80 | (cp & 0x3F));
+				} else {
+					put(0xE0 | (c >> 12));
+					put(0x80 | ((c >> 6) & 0x3F));
+					put(0x80 | (c & 0x3F));
+				}
+			}
+		}
+
+		/**
+		 * Check if value must be quoted
+		 * 
+		 * @param str value
+		 * @return true if quotes are needed
+		 */
+		private boolean needsQuotes(String str) {
+			for (int i = 0; i < str.length(); i++) {
+				char c = str.charAt(i);
+				if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Write field, preceded by a separator if it is not the first one
+		 * 
+		 * @param col column number
+		 * @param str value or null
+		 * @throws IOException 
+		 */
+		private void field(int col, String str) throws IOException {
+			if (col > 0) {
+				put(',');
+			}
+			if (str == null) {
+				return;
+			}
+			if (needsQuotes(str)) {
+				put('"');
+				put(str, true);
+				put('"');
+			} else {
+				put(str, false);
+			}
+		}
+
+		/**
+		 * Write date field, formatted dates are cached
+		 * 
+		 * @param day epoch day
+		 * @throws IOException 
+		 */
+		private void date(int day) throws IOException {
+			put(',');
+			if (day == LegalDoc.NO_DATE) {
+				return;
+			}
+			byte[] b = dates.computeIfAbsent(day, d -> LegalDoc.toDate(d)
+							.format(DateTimeFormatter.ISO_DATE).getBytes(StandardCharsets.US_ASCII));
+			put(b);
+		}
+
+		/**
+		 * Write a row
+		 * 
+		 * @param justel link to Justel
+		 * @param docDay document date as epoch day
+		 * @param pubDay publication date as epoch day
+		 * @param lang language code
+		 * @param source source or null
+		 * @param title title
+		 * @throws IOException 
+		 */
+		private void write(String justel, int docDay, int pubDay, String lang, 
+							String source, String title) throws IOException {
+			if (ch == null) {
+				create();
+			}
+			field(0, LegalDoc.toId(justel));
+			field(1, justel);
+			field(2, type);
+			field(3, LegalDoc.numac(justel));
+			date(docDay);
+			date(pubDay);
+			field(6, lang);
+			field(7, types.get(lang));
+			field(8, source);
+			field(9, title);
+			put('\n');
+		}
+
+		@Override
+		public void add(LegalDoc doc) throws IOException {
+			write(doc.getJustel(), doc.getDocDay(), doc.getPubDay(), doc.getLang(), 
+					doc.getSource(), doc.getTitle());
+		}
+
+		@Override
+		public void add(LegalDocBatch docs, int row) throws IOException {
+			write(docs.getJustel(row), docs.getDocDay(row), docs.getPubDay(row), 
+					docs.getLang(row), docs.getSource(row), docs.getTitle(row));
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (ch == null) {
+				LOG.warn("Nothing to write for {}", year);
+				return;
+			}
+			try {
+				drain();
+			} finally {
+				ch.close();
+			}
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param outfile output file
+		 * @param year year
+		 * @param type common type
+		 * @param types language-specific types
+		 */
+		CSVSink(Path outfile, int year, String type, Map<String,String> types) {
+			this.outfile = outfile;
+			this.year = year;
+			this.type = type;
+			this.types = types;
 		}
-		return d.format(DateTimeFormatter.ISO_DATE);
 	}
-	
+
+	@Override
+	public Sink open(Path outfile, int year, String type, Map<String,String> types) {
+		return new CSVSink(outfile, year, type, types);
+	}
+
 	/**
-	 * Write (titles of) legal documents to a file
+	 * Constructor
 	 * 
-	 * @param docs list of legaldocs
-	 * @param outfile output file
-	 * @param year year
-	 * @param type common type
-	 * @param types language-specific types
-	 * @throws IOException 
+	 * @param compression output compression
+	 * @param pool thread pool for compression, not used when not compressing
 	 */
-	@Override
-	public void write(List<LegalDoc> docs, Path outfile, int year, String type, 
-								Map<String,String> types) throws IOException {
-		if (docs.isEmpty()) {
-			LOG.warn("Nothing to write for {}", year);
-			return;
-		} 
-		
-		File dir = outfile.getParent().toFile();
-		if (!dir.exists() && !dir.mkdirs()) {
-			LOG.error("Directory {} not writable", dir);
-		}
+	public LegalDocWriterCSV(Compression compression, ExecutorService pool) {
+		this.compression = compression;
+		this.pool = pool;
+	}
 
-		try (BufferedWriter w = Files.newBufferedWriter(outfile);
-			CSVWriter csv = new CSVWriter(w)) {
-			
-			String[] header = { "ID", "JUSTEL", "DOCTYPE", "NUMAC",
-								"DOCDATE", "PUBDATE", "LANG", 
-								"TYPE" , "SOURCE", "TITLE" };	
-			csv.writeNext(header);
-			
-			for (LegalDoc doc: docs) {
-				String[] row = {
-					doc.getId(), doc.getJustel().toString(), type, doc.getLocalId(),
-					toDate(doc.getDocDate()), toDate(doc.getPubDate()), doc.getLang(),
-					types.get(doc.getLang()), doc.getSource(), doc.getTitle() };
-				csv.writeNext(row);
-			}
-		}
+	/**
+	 * Constructor, without compression
+	 */
+	public LegalDocWriterCSV() {
+		this(Compression.NONE, null);
 	}
 }
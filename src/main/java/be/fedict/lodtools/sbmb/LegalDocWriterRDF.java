@@ -25,32 +25,27 @@
  */
 package be.fedict.lodtools.sbmb;
 
+import be.fedict.lodtools.sbmb.helper.Compression;
 import be.fedict.lodtools.sbmb.helper.ELI;
 import be.fedict.lodtools.sbmb.helper.LegalDoc;
+import be.fedict.lodtools.sbmb.helper.LegalDocBatch;
+import be.fedict.lodtools.sbmb.helper.NTriplesEncoder;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
 
 import org.eclipse.rdf4j.model.IRI;
-import org.eclipse.rdf4j.model.Model;
-import org.eclipse.rdf4j.model.Value;
-import org.eclipse.rdf4j.model.ValueFactory;
-import org.eclipse.rdf4j.model.impl.LinkedHashModel;
-import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.OWL;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
-import org.eclipse.rdf4j.rio.RDFFormat;
-import org.eclipse.rdf4j.rio.Rio;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,109 +58,353 @@ import org.slf4j.LoggerFactory;
 public class LegalDocWriterRDF implements LegalDocWriter {
 	private final static Logger LOG = LoggerFactory.getLogger(LegalDocWriterRDF.class);
 	
-	private final static ValueFactory F = SimpleValueFactory.getInstance();
+	private final static Map<String,byte[]> LANGS = new HashMap<>();
+	private final static byte[] SBMB = NTriplesEncoder.iri("http://org.belgif.be/cbe/org/0307_614_813#id");
+	private final static byte[] HTML = NTriplesEncoder.iri("http://www.iana.org/assignments/media-types/text/html");
+	private final static byte[] DATE = NTriplesEncoder.suffix(null, XMLSchema.DATE.stringValue());
+	private final static byte[] STRING = NTriplesEncoder.suffix(null, null);
+	
+	private final static byte[] TYPE = iri(RDF.TYPE);
+	private final static byte[] SAMEAS = iri(OWL.SAMEAS);
+	private final static byte[] DATE_DOCUMENT = iri(ELI.DATE_DOCUMENT);
+	private final static byte[] DATE_PUBLICATION = iri(ELI.DATE_PUBLICATION);
+	private final static byte[] EMBODIES = iri(ELI.EMBODIES);
+	private final static byte[] FORMAT = iri(ELI.FORMAT);
+	private final static byte[] FORMAT_PROP = iri(ELI.FORMAT_PROP);
+	private final static byte[] ID_LOCAL = iri(ELI.ID_LOCAL);
+	private final static byte[] IS_EMBODIED_BY = iri(ELI.IS_EMBODIED_BY);
+	private final static byte[] IS_REALIZED_BY = iri(ELI.IS_REALIZED_BY);
+	private final static byte[] LANGUAGE = iri(ELI.LANGUAGE);
+	private final static byte[] LEGAL_EXPRESSION = iri(ELI.LEGAL_EXPRESSION);
+	private final static byte[] LEGAL_RESOURCE = iri(ELI.LEGAL_RESOURCE);
+	private final static byte[] PUBLISHER_AGENT = iri(ELI.PUBLISHER_AGENT);
+	private final static byte[] REALIZES = iri(ELI.REALIZES);
+	private final static byte[] RESPONSIBILITY_OF = iri(ELI.RESPONSIBILITY_OF);
+	private final static byte[] TITLE = iri(ELI.TITLE);
+	private final static byte[] TYPE_DOCUMENT = iri(ELI.TYPE_DOCUMENT);
+
+	// 64-bit FNV-1a, for remembering which statements were written
+	private final static long FNV_BASIS = 0xcbf29ce484222325L;
+	private final static long FNV_PRIME = 0x100000001b3L;
+	private final static int FNV_SEPARATOR = 0x10000;
 
-	private final static Map<String,IRI> LANGS = new HashMap<>();
-	private final static IRI SBMB = F.createIRI("http://org.belgif.be/cbe/org/0307_614_813#id");
-		
 	static {
-		LANGS.put("nl", F.createIRI("http://publications.europa.eu/resource/authority/language/NED"));
-		LANGS.put("fr", F.createIRI("http://publications.europa.eu/resource/authority/language/FRA"));
+		LANGS.put("nl", NTriplesEncoder.iri("http://publications.europa.eu/resource/authority/language/NED"));
+		LANGS.put("fr", NTriplesEncoder.iri("http://publications.europa.eu/resource/authority/language/FRA"));
 	}
 	
+	private final boolean dedup;
+	private final Compression compression;
+	private final ExecutorService pool;
+
 	/**
-	 * Convert LocalDate to RDF4J value
+	 * Encode RDF4J IRI
 	 * 
-	 * @param d local date
-	 * @return Value
+	 * @param iri IRI
+	 * @return N-Triples bytes
 	 */
-	private Value toDate(LocalDate d) {
-		if (d == null) {
+	private static byte[] iri(IRI iri) {
+		return NTriplesEncoder.iri(iri.stringValue());
+	}
+
+	/**
+	 * Convert epoch day to date value
+	 * 
+	 * @param day epoch day
+	 * @return string or null
+	 */
+	private static String toDate(int day) {
+		if (day == LegalDoc.NO_DATE) {
 			return null;
 		}
-		String date= d.format(DateTimeFormatter.ISO_DATE);
-		return F.createLiteral(date, XMLSchema.DATE);
+		return LegalDoc.toDate(day).format(DateTimeFormatter.ISO_DATE);
 	}
 	
 	/**
-	 * Write (titles of) legal documents to a file
+	 * Add bytes to a hash, followed by a separator
 	 * 
-	 * @param docs list of legaldocs
-	 * @param outfile output file
-	 * @param year year
-	 * @param type common type
-	 * @param types language-specific types
-	 * @throws IOException 
+	 * @param h hash
+	 * @param b bytes
+	 * @return new hash
 	 */
-	public void write(List<LegalDoc> docs, Path outfile, int year, String type, 
-								Map<String,String> types) throws IOException {
-		if (docs.isEmpty()) {
-			LOG.warn("Nothing to write for {}", year);
-			return;
-		} 
-		IRI doctype = F.createIRI("http://vocab.belgif.be/auth/legal-type/" + type + "#id");
-		IRI html = F.createIRI("http://www.iana.org/assignments/media-types/text/html");
-		
-		File dir = outfile.getParent().toFile();
-		if (!dir.exists() && !dir.mkdirs()) {
-			LOG.error("Directory {} not writable", dir);
+	private static long hash(long h, byte[] b) {
+		for (byte x: b) {
+			h = (h ^ (x & 0xFF)) * FNV_PRIME;
 		}
+		return (h ^ FNV_SEPARATOR) * FNV_PRIME;
+	}
 
-		try (BufferedWriter w = Files.newBufferedWriter(outfile)) {
-			Model m = new LinkedHashModel();
-			for (LegalDoc doc: docs) {
-				IRI id = F.createIRI(doc.getId());
-				IRI justel = F.createIRI(doc.getJustel().toString());
-				IRI format = F.createIRI(justel.toString() + "/html");
-				
-				// Legal Resource "abstract" IRI
-				m.add(id, RDF.TYPE, ELI.LEGAL_RESOURCE);
-				m.add(id, ELI.TYPE_DOCUMENT, doctype);
-				
-				// doc and publication date are on "abstract" LegalResource level
-				Value docDate = toDate(doc.getDocDate());
-				if (docDate != null) {
-					m.add(id, ELI.DATE_DOCUMENT, docDate);
-				}
-				Value pubDate = toDate(doc.getPubDate());
-				if (pubDate != null) {
-					m.add(id, ELI.DATE_PUBLICATION, pubDate);
-				}
-				
-				m.add(id, ELI.ID_LOCAL, F.createLiteral(doc.getLocalId()));
-				
-				// Alias / sameas
-				String lang = doc.getLang();
-				String t = types.get(lang);
-				for (Entry<String,String> e: types.entrySet()) {
-					if (! e.getKey().equals(lang)) {
-						IRI same = F.createIRI(id.toString().replaceFirst(t, e.getValue()));
-						m.add(id, OWL.SAMEAS, same);
+	/**
+	 * Add characters to a hash, followed by a separator
+	 * 
+	 * @param h hash
+	 * @param str string
+	 * @return new hash
+	 */
+	private static long hash(long h, String str) {
+		for (int i = 0; i < str.length(); i++) {
+			h = (h ^ str.charAt(i)) * FNV_PRIME;
+		}
+		return (h ^ FNV_SEPARATOR) * FNV_PRIME;
+	}
+
+	/**
+	 * Sink writing the statements of each legal document as soon as it is added
+	 */
+	private class RDFSink implements Sink {
+		private final Path outfile;
+		private final int year;
+		private final Map<String,String> types;
+		private final Map<String,Pattern> patterns = new HashMap<>();
+		private final Map<String,byte[]> suffixes = new HashMap<>();
+		private final byte[] doctype;
+		// hashes of the statements written per identifier
+		private final Map<String,long[]> seen;
+		// hashes of the statements written for the current document
+		private long[] hashes = new long[32];
+		private int count;
+		// hashes of the statements written before for the same identifier, if any
+		private long[] prev;
+		private NTriplesEncoder nt;
+
+		/**
+		 * Create file
+		 * 
+		 * @throws IOException 
+		 */
+		private void create() throws IOException {
+			File dir = outfile.getParent().toFile();
+			if (!dir.exists() && !dir.mkdirs()) {
+				LOG.error("Directory {} not writable", dir);
+			}
+			nt = new NTriplesEncoder(compression.open(outfile, pool));
+		}
+
+		@Override
+		public void add(LegalDoc doc) throws IOException {
+			add(doc.getJustel(), doc.getDocDay(), doc.getPubDay(), doc.getLang(), 
+				doc.getSource(), doc.getTitle());
+		}
+
+		@Override
+		public void add(LegalDocBatch docs, int row) throws IOException {
+			add(docs.getJustel(row), docs.getDocDay(row), docs.getPubDay(row), 
+				docs.getLang(row), docs.getSource(row), docs.getTitle(row));
+		}
+
+		/**
+		 * Check if a statement was not yet written for the current identifier,
+		 * and if so, remember its hash
+		 * 
+		 * @param hash hash of the statement
+		 * @return true if not yet written
+		 */
+		private boolean isNew(long hash) {
+			if (prev != null) {
+				for (long h: prev) {
+					if (h == hash) {
+						return false;
 					}
 				}
-				String source = doc.getSource();
-				if (source != null) {
-					m.add(id, ELI.RESPONSIBILITY_OF, F.createLiteral(source, lang));
+			}
+			for (int i = 0; i < count; i++) {
+				if (hashes[i] == hash) {
+					return false;
 				}
-				
-				m.add(id, ELI.IS_REALIZED_BY, justel);
-				m.add(justel, ELI.REALIZES, id);
-				
-				// Legal expression, i.e. Justel publication
-				m.add(justel, RDF.TYPE, ELI.LEGAL_EXPRESSION);
-				m.add(justel, ELI.LANGUAGE, LANGS.get(lang));
-				m.add(justel, ELI.TITLE, F.createLiteral(doc.getTitle(), lang));
-				
-				
-				m.add(justel, ELI.PUBLISHER_AGENT, SBMB);
-				
-				// Format, i.e. Justel as HTML
-				m.add(justel, ELI.IS_EMBODIED_BY, format);
-				m.add(format, ELI.EMBODIES, justel);
-				m.add(format, RDF.TYPE, ELI.FORMAT);
-				m.add(format, ELI.FORMAT_PROP, html);
-			}
-			Rio.write(m, w, RDFFormat.NTRIPLES);
+			}
+			if (count == hashes.length) {
+				hashes = Arrays.copyOf(hashes, count * 2);
+			}
+			hashes[count++] = hash;
+			return true;
+		}
+
+		/**
+		 * Write statement with an IRI as object, unless it was already written
+		 * 
+		 * @param subj subject
+		 * @param pred predicate
+		 * @param obj object
+		 * @throws IOException 
+		 */
+		private void statement(byte[] subj, byte[] pred, byte[] obj) throws IOException {
+			if (seen == null || isNew(hash(hash(hash(FNV_BASIS, subj), pred), obj))) {
+				nt.statement(subj, pred, obj);
+			}
+		}
+
+		/**
+		 * Write statement with a literal as object, unless it was already written
+		 * 
+		 * @param subj subject
+		 * @param pred predicate
+		 * @param value literal value
+		 * @param suffix language tag or datatype
+		 * @throws IOException 
+		 */
+		private void statement(byte[] subj, byte[] pred, String value, byte[] suffix) 
+																		throws IOException {
+			if (seen == null || isNew(hash(hash(hash(hash(FNV_BASIS, subj), pred), value), suffix))) {
+				nt.statement(subj, pred, value, suffix);
+			}
 		}
+
+		/**
+		 * Add statements for a legal document.
+		 * When the identifier was already written, only statements that were not written before
+		 * for this identifier are added, just like a model would drop identical statements.
+		 * 
+		 * @param link link to Justel
+		 * @param docDay document date as epoch day
+		 * @param pubDay publication date as epoch day
+		 * @param lang language code
+		 * @param source source or null
+		 * @param title title
+		 * @throws IOException
+		 */
+		private void add(String link, int docDay, int pubDay, String lang, 
+							String source, String title) throws IOException {
+			String docId = LegalDoc.toId(link);
+			if (nt == null) {
+				create();
+			}
+			if (seen != null) {
+				prev = seen.get(docId);
+				count = 0;
+			}
+			byte[] id = NTriplesEncoder.iri(docId);
+			byte[] justel = NTriplesEncoder.iri(link);
+			byte[] format = NTriplesEncoder.iri(link, "/html");
+			byte[] langTag = suffixes.computeIfAbsent(lang, l -> NTriplesEncoder.suffix(l, null));
+
+			// Legal Resource "abstract" IRI
+			statement(id, TYPE, LEGAL_RESOURCE);
+			statement(id, TYPE_DOCUMENT, doctype);
+
+			// doc and publication date are on "abstract" LegalResource level
+			String docDate = toDate(docDay);
+			if (docDate != null) {
+				statement(id, DATE_DOCUMENT, docDate, DATE);
+			}
+			String pubDate = toDate(pubDay);
+			if (pubDate != null) {
+				statement(id, DATE_PUBLICATION, pubDate, DATE);
+			}
+
+			statement(id, ID_LOCAL, LegalDoc.numac(link), STRING);
+
+			// Alias / sameas
+			Pattern t = patterns.computeIfAbsent(types.get(lang), Pattern::compile);
+			for (Entry<String,String> e: types.entrySet()) {
+				if (! e.getKey().equals(lang)) {
+					String same = t.matcher(docId).replaceFirst(e.getValue());
+					statement(id, SAMEAS, NTriplesEncoder.iri(same));
+				}
+			}
+			if (source != null) {
+				statement(id, RESPONSIBILITY_OF, source, langTag);
+			}
+
+			statement(id, IS_REALIZED_BY, justel);
+			statement(justel, REALIZES, id);
+
+			// Legal expression, i.e. Justel publication
+			statement(justel, TYPE, LEGAL_EXPRESSION);
+			statement(justel, LANGUAGE, LANGS.get(lang));
+			statement(justel, TITLE, title, langTag);
+
+			statement(justel, PUBLISHER_AGENT, SBMB);
+
+			// Format, i.e. Justel as HTML
+			statement(justel, IS_EMBODIED_BY, format);
+			statement(format, EMBODIES, justel);
+			statement(format, TYPE, FORMAT);
+			statement(format, FORMAT_PROP, HTML);
+
+			if (seen != null) {
+				remember(docId);
+			}
+		}
+
+		/**
+		 * Remember hashes of the statements written for an identifier
+		 * 
+		 * @param docId identifier
+		 */
+		private void remember(String docId) {
+			if (prev == null) {
+				seen.put(docId, Arrays.copyOf(hashes, count));
+				return;
+			}
+			if (count == 0) {
+				LOG.warn("Skipping duplicate {}", docId);
+				return;
+			}
+			LOG.warn("Duplicate {}, adding {} statements", docId, count);
+			long[] all = Arrays.copyOf(prev, prev.length + count);
+			System.arraycopy(hashes, 0, all, prev.length, count);
+			seen.put(docId, all);
+		}
+
+
+		@Override
+		public void close() throws IOException {
+			if (nt == null) {
+				LOG.warn("Nothing to write for {}", year);
+				return;
+			}
+			nt.close();
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param outfile output file
+		 * @param year year
+		 * @param type common type
+		 * @param types language-specific types
+		 * @param dedup skip statements that were already written for the same identifier
+		 */
+		RDFSink(Path outfile, int year, String type, Map<String,String> types, boolean dedup) {
+			this.outfile = outfile;
+			this.year = year;
+			this.types = types;
+			this.doctype = NTriplesEncoder.iri("http://vocab.belgif.be/auth/legal-type/" + type + "#id");
+			this.seen = dedup ? new HashMap<>() : null;
+		}
+	}
+
+	@Override
+	public Sink open(Path outfile, int year, String type, Map<String,String> types) {
+		return new RDFSink(outfile, year, type, types, dedup);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param dedup skip statements that were already written for the same identifier
+	 * @param compression output compression
+	 * @param pool thread pool for compression, not used when not compressing
+	 */
+	public LegalDocWriterRDF(boolean dedup, Compression compression, ExecutorService pool) {
+		this.dedup = dedup;
+		this.compression = compression;
+		this.pool = pool;
+	}
+
+	/**
+	 * Constructor, without compression
+	 * 
+	 * @param dedup skip statements that were already written for the same identifier
+	 */
+	public LegalDocWriterRDF(boolean dedup) {
+		this(dedup, Compression.NONE, null);
+	}
+
+	/**
+	 * Constructor, skipping duplicate statements
+	 */
+	public LegalDocWriterRDF() {
+		this(true);
 	}
 }
@@ -25,16 +25,39 @@
  */
 package be.fedict.lodtools.sbmb;
 
+import be.fedict.lodtools.sbmb.helper.CommitPolicy;
+import be.fedict.lodtools.sbmb.helper.Compression;
+import be.fedict.lodtools.sbmb.helper.DateParser;
 import be.fedict.lodtools.sbmb.helper.LegalDoc;
+import be.fedict.lodtools.sbmb.helper.LegalDocBatch;
+import be.fedict.lodtools.sbmb.helper.LegalDocCodec;
+import be.fedict.lodtools.sbmb.helper.Page;
+import be.fedict.lodtools.sbmb.helper.PageCodec;
+import be.fedict.lodtools.sbmb.helper.PageMeta;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -42,8 +65,6 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
-import org.jsoup.nodes.Document;
-
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.HTreeMap;
@@ -60,8 +81,7 @@ import org.slf4j.LoggerFactory;
 public class Main {
 	private final static Logger LOG = LoggerFactory.getLogger(Main.class);
 	
-	private final static PageParser PARSER = new PageParser();
-	private final static Random RND = new Random();
+	private static PageParser PARSER;
 	
 	private final static Options OPTS = 
 			new Options().addRequiredOption("s", "start", true, "Start year")
@@ -74,10 +94,24 @@ public class Main {
 						.addOption("c", "cache", true, "Cache file")
 						.addOption("g", "get", false, "Get files from site")
 						.addOption("o", "outdir", true, "Output directory")
-						.addOption("w", "wait", true, "Wait between requests");
+						.addOption("w", "wait", true, "Initial wait between requests")
+						.addOption("l", "min-wait", true, "Minimum wait between requests (default: wait)")
+						.addOption("p", "parallel", true, "Number of parallel requests")
+						.addOption("k", "connect-timeout", true, "Connection timeout")
+						.addOption("r", "read-timeout", true, "Response timeout")
+						.addOption("q", "commit", true, "Commit to cache every N pages, Ns seconds or year")
+						.addOption("x", "trusted", false, "Do not clean cached HTML before parsing")
+						.addOption("j", "jobs", true, "Number of pages written in parallel")
+						.addOption("z", "compress", true, "Compress output files: none, gzip or zstd");
 	
 	private static DB CACHE;
-	private static HTreeMap<String,String> MAP;
+	private static HTreeMap<String,byte[]> MAP;
+	private static HTreeMap<String,String> LEGACY;
+	private static HTreeMap<String,String> META;
+	private static HTreeMap<String,Integer> CHECKPOINT;
+	private static HTreeMap<String,byte[]> DOCS;
+	private static boolean READONLY = false;
+	private static boolean TRUSTED = false;
 
 	/**
 	 * Log message and exit with exit code
@@ -87,7 +121,9 @@ public class Main {
 	 */
 	private static void exit(int code, String msg) {
 		if (CACHE != null) {
-			CACHE.commit();
+			if (!READONLY) {
+				CACHE.commit();
+			}
 			CACHE.close();
 		}
 		LOG.error(msg);
@@ -126,23 +162,69 @@ public class Main {
 	}
 	
 	/**
-	 * Sleep for a random time (between T and T * 2)
+	 * Get database cache file, read-only
 	 * 
-	 * @param wait minimum sleep (in seconds)
-	 * @throws InterruptedException 
+	 * The file is memory-mapped and not locked, 
+	 * so multiple processes can read the same cache at the same time.
+	 * 
+	 * @param file MapDB file
+	 * @throws IOException
 	 */
-	private static void sleep(long wait) throws InterruptedException {
-		Thread.sleep(wait + ((long) RND.nextFloat() * wait));
+	private static void getMapReadOnly(String file) throws IOException {
+		if (!Files.exists(Paths.get(file))) {
+			throw new IOException("Cache file " + file + " not found");
+		}
+		CACHE = DBMaker.fileDB(file).readOnly().fileMmapEnableIfSupported().fileLockDisable()
+									.closeOnJvmShutdown().make();
+		READONLY = true;
+		if (CACHE.exists("pages")) {
+			MAP = CACHE.hashMap("pages", Serializer.STRING, Serializer.BYTE_ARRAY).open();
+		}
+		if (CACHE.exists("sbmb")) {
+			LEGACY = CACHE.hashMap("sbmb", Serializer.STRING, Serializer.STRING).open();
+		}
+		if (CACHE.exists("meta")) {
+			META = CACHE.hashMap("meta", Serializer.STRING, Serializer.STRING).open();
+		}
+		if (CACHE.exists("docs")) {
+			DOCS = CACHE.hashMap("docs", Serializer.STRING, Serializer.BYTE_ARRAY).open();
+		}
 	}
-
+	
 	/**
 	 * Get database cache file
 	 * 
 	 * @param file MapDB file
+	 * @throws IOException
 	 */
-	private static  void getMap(String file) {
+	private static void getMap(String file) throws IOException {
 		CACHE = DBMaker.fileDB(file).closeOnJvmShutdown().transactionEnable().make();
-		MAP = CACHE.hashMap("sbmb", Serializer.STRING, Serializer.STRING).createOrOpen();
+		MAP = CACHE.hashMap("pages", Serializer.STRING, Serializer.BYTE_ARRAY).createOrOpen();
+		LEGACY = CACHE.hashMap("sbmb", Serializer.STRING, Serializer.STRING).createOrOpen();
+		META = CACHE.hashMap("meta", Serializer.STRING, Serializer.STRING).createOrOpen();
+		CHECKPOINT = CACHE.hashMap("checkpoint", Serializer.STRING, Serializer.INTEGER).createOrOpen();
+		DOCS = CACHE.hashMap("docs", Serializer.STRING, Serializer.BYTE_ARRAY).createOrOpen();
+		migrateMap();
+	}
+	
+	/**
+	 * Compress pages cached by older versions
+	 * 
+	 * @throws IOException 
+	 */
+	private static void migrateMap() throws IOException {
+		int count = 0;
+		for (String url: LEGACY.getKeys()) {
+			byte[] raw = LEGACY.get(url).getBytes(StandardCharsets.ISO_8859_1);
+			MAP.put(url, PageCodec.encode(raw));
+			count++;
+		}
+		LEGACY.clear();
+		
+		if (count > 0) {
+			LOG.info("Compressed {} pages in cache", count);
+			CACHE.commit();
+		}
 	}
 	
 	/**
@@ -151,28 +233,236 @@ public class Main {
 	 * @param end end year
 	 * @param base base URL
 	 * @param types types
-	 * @param wait delay between requests in seconds
+	 * @param wait initial delay between requests in seconds
+	 * @param minWait minimum delay between requests in seconds
+	 * @param parallel number of parallel requests
+	 * @param policy commit policy
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
-	private static void getPages(int start, int end, String base, Map<String,String> types, String wait) 
-									throws InterruptedException, IOException {
+	private static void getPages(int start, int end, String base, Map<String,String> types, 
+				String wait, String minWait, String parallel, CommitPolicy policy) 
+										throws InterruptedException, IOException {
 		int w = Integer.valueOf(wait) * 1000;
+		int l = Integer.valueOf(minWait) * 1000;
+		int p = Integer.valueOf(parallel);
 		
-		for(int year = start; year <= end; year++) {	
-			LOG.info("Get page for year {}", year);
+		// last year of which all pages were committed by a previous, interrupted run
+		String key = String.join("/", types.values());
+		Integer checkpoint = CHECKPOINT.get(key);
+		if (checkpoint != null && checkpoint >= start && checkpoint < end) {
+			LOG.info("Resuming after checkpoint {}", checkpoint);
+			start = checkpoint + 1;
+		}
 		
-			for(Entry<String,String> type: types.entrySet()) {
-				sleep(w);
-				Document page = PARSER.get(base, type.getValue(), year, type.getKey());
-				MAP.put(page.location(), page.body().html());
-				CACHE.commit();
+		try (FetchScheduler scheduler = new FetchScheduler(PARSER, p, w, l)) {
+			// number of pages still to be fetched per year
+			Map<String,Integer> years = new HashMap<>();
+			int[] todo = new int[end - start + 1];
+			
+			for(int year = start; year <= end; year++) {	
+				for(Entry<String,String> type: types.entrySet()) {
+					String url = PageParser.getURL(base, type.getValue(), year);
+					PageMeta prev = MAP.containsKey(url) ? PageMeta.decode(META.get(url)) : null;
+					scheduler.submit(base, type.getValue(), year, type.getKey(), prev);
+					years.put(url, year);
+					todo[year - start]++;
+				}
+			}
+			
+			int done = start;
+			Page page;
+			while ((page = scheduler.take()) != null) {
+				boolean commit;
+				try (Page fetched = page) {
+					if (fetched.isModified()) {
+						try (InputStream in = Files.newInputStream(fetched.getFile())) {
+							MAP.put(fetched.getUrl(), PageCodec.encode(in));
+						}
+					}
+					META.put(fetched.getUrl(), fetched.getMeta().encode());
+					commit = policy.page();
+					
+					int year = years.get(fetched.getUrl());
+					if (--todo[year - start] == 0 && policy.year()) {
+						commit = true;
+					}
+				}
+				
+				while (done <= end && todo[done - start] == 0) {
+					done++;
+				}
+				if (commit && done > start) {
+					CHECKPOINT.put(key, done - 1);
+				}
+				if (commit) {
+					CACHE.commit();
+					policy.committed();
+				}
 			}
+			CHECKPOINT.remove(key);
+			CACHE.commit();
+		}
+	}
+	
+	/**
+	 * Get HTML page from the cache
+	 * 
+	 * @param url URL of the page
+	 * @return HTML reader or null when not found
+	 * @throws IOException
+	 */
+	private static Reader getHTML(String url) throws IOException {
+		byte[] value = (MAP != null) ? MAP.get(url) : null;
+		if (value != null && value.length > 0) {
+			return new InputStreamReader(PageCodec.open(value), StandardCharsets.ISO_8859_1);
+		}
+		// read-only cache can't be migrated, so also check pages cached by older versions
+		String html = (LEGACY != null) ? LEGACY.get(url) : null;
+		return (html != null && !html.isEmpty()) ? new StringReader(html) : null;
+	}
+	
+	/**
+	 * Get hash of a cached page
+	 * 
+	 * @param url URL of the page
+	 * @return hash or null when page is not in cache
+	 */
+	private static String getHash(String url) {
+		PageMeta meta = (META != null) ? PageMeta.decode(META.get(url)) : null;
+		if (meta != null && meta.getHash() != null) {
+			return meta.getHash();
+		}
+		byte[] value = (MAP != null) ? MAP.get(url) : null;
+		return (value != null) ? PageMeta.hash(value) : null;
+	}
+	
+	/**
+	 * Get legal documents of a page from the cache of parsed documents
+	 * 
+	 * @param url URL of the page
+	 * @param hash hash of the page
+	 * @return list of legal documents or null when not cached or outdated
+	 * @throws IOException 
+	 */
+	private static LegalDocBatch getCachedDocs(String url, String hash) throws IOException {
+		if (hash == null || DOCS == null) {
+			return null;
+		}
+		byte[] value = DOCS.get(url);
+		LegalDocBatch docs = (value != null) 
+					? LegalDocCodec.decode(value, hash, PageParser.VERSION) : null;
+		if (docs != null) {
+			LOG.info("Using parsed docs from cache for {}", url);
+		}
+		return docs;
+	}
+	
+	/**
+	 * Get temporary file in the same directory as the output file
+	 * 
+	 * @param file output file
+	 * @return temporary file
+	 */
+	private static Path getTempFile(Path file) {
+		return file.resolveSibling(file.getFileName() + ".tmp");
+	}
+	
+	/**
+	 * Replace output file by the completely written temporary file, if there is one
+	 * 
+	 * @param tmp temporary file
+	 * @param file output file
+	 * @throws IOException 
+	 */
+	private static void moveTempFile(Path tmp, Path file) throws IOException {
+		if (Files.exists(tmp)) {
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		}
 	}
 	
 	/**
-	 * Write page to RDF and CSV file
+	 * Write one page, i.e. one document type and year, to RDF and CSV file
+	 * 
+	 * @param year year
+	 * @param lang language code
+	 * @param doctype language-specific document type
+	 * @param base base URL
+	 * @param type common type
+	 * @param types map of types
+	 * @param rdfOut RDF output file
+	 * @param csvOut CSV output file
+	 * @param rdf RDF writer
+	 * @param csv CSV writer
+	 * @param writers thread pool for the RDF and CSV writers
+	 * @return number of documents written
+	 * @throws IOException
+	 */
+	private static int writePage(int year, String lang, String doctype, String base, String type,
+					Map<String,String> types, Path rdfOut, Path csvOut, 
+					LegalDocWriter rdf, LegalDocWriter csv, ExecutorService writers) 
+																	throws IOException {
+		String url = PageParser.getURL(base, doctype, year);
+				
+		String hash = getHash(url);
+		LegalDocBatch cached = getCachedDocs(url, hash);
+		Reader html = (cached == null) ? getHTML(url) : null;
+		if (cached == null && html == null) {
+			throw new IOException("Could not get " + doctype + "/" + year + " from cache");
+		}
+		// keep parsed docs, to be stored in the cache afterwards
+		LegalDocBatch parsed = (cached == null && hash != null && !READONLY) 
+									? new LegalDocBatch() : null;
+		int count = 0;
+		
+		// documents are written while parsing, so write to temporary files first
+		// to avoid leaving truncated files behind when parsing fails halfway
+		Path rdfTmp = getTempFile(rdfOut);
+		Path csvTmp = getTempFile(csvOut);
+		boolean written = false;
+		try {
+			try (LegalDocWriter.Sink out = new FanOutSink(writers, 
+												rdf.open(rdfTmp, year, type, types),
+												csv.open(csvTmp, year, type, types))) {
+				if (cached != null) {
+					out.add(cached);
+					count = cached.size();
+				} else {
+					try (Stream<LegalDoc> docs = PARSER.stream(html, lang, TRUSTED)) {
+						Iterator<LegalDoc> it = docs.iterator();
+						while (it.hasNext()) {
+							LegalDoc doc = it.next();
+							out.add(doc);
+							if (parsed != null) {
+								parsed.add(doc);
+							}
+							count++;
+						}
+					}
+				}
+			}
+			moveTempFile(rdfTmp, rdfOut);
+			moveTempFile(csvTmp, csvOut);
+			written = true;
+		} catch (UncheckedIOException uioe) {
+			throw uioe.getCause();
+		} finally {
+			if (!written) {
+				Files.deleteIfExists(rdfTmp);
+				Files.deleteIfExists(csvTmp);
+			}
+		}
+		
+		if (parsed != null) {
+			DOCS.put(url, LegalDocCodec.encode(parsed, hash, PageParser.VERSION));
+		}
+		return count;
+	}
+
+	/**
+	 * Write pages to RDF and CSV files.
+	 * Each document type and year is written by a separate task, 
+	 * results are logged in order and a failing task does not stop the others.
 	 * 
 	 * @param start start year
 	 * @param end end year
@@ -180,32 +470,70 @@ public class Main {
 	 * @param type
 	 * @param types map of types
 	 * @param outdir output dir
+	 * @param threads number of parallel writers
+	 * @param compression output compression
 	 * @throws IOException
+	 * @throws InterruptedException
 	 */
 	private static void writePages(int start, int end, String base, String type,
-					Map<String,String> types, String outdir) throws IOException {
-		LegalDocWriter rdf = new LegalDocWriterRDF();
-		LegalDocWriter csv = new LegalDocWriterCSV();
-				
-		for (int year = start; year <= end; year++) {	
-			for(Entry<String,String> e: types.entrySet()) {
-				String lang = e.getKey();
-				String doctype = e.getValue();
-				
-				String html = MAP.get(base + "/" + doctype + "/" + year);
-				if (html == null || html.isEmpty()) {
-					throw new IOException("Could not get " + doctype + "/" + year + " from cache");
+					Map<String,String> types, String outdir, int threads, Compression compression) 
+									throws IOException, InterruptedException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of writers must be at least 1");
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		// RDF and CSV are written concurrently, at most one thread per output file
+		ExecutorService writers = Executors.newCachedThreadPool();
+		// blocks of output files are compressed in parallel
+		ExecutorService compressors = (compression != Compression.NONE) 
+			? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) : null;
+		LegalDocWriter rdf = new LegalDocWriterRDF(true, compression, compressors);
+		LegalDocWriter csv = new LegalDocWriterCSV(compression, compressors);
+		List<Future<Integer>> tasks = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		int failed = 0;
+		
+		try {
+			for (int year = start; year <= end; year++) {
+				for(Entry<String,String> e: types.entrySet()) {
+					int y = year;
+					String lang = e.getKey();
+					String doctype = e.getValue();
+					Path rdfOut = Paths.get(outdir, 
+									doctype + "-" + year + ".nt" + compression.getExtension());
+					Path csvOut = Paths.get(outdir, 
+									doctype + "-" + year + ".csv" + compression.getExtension());
+					tasks.add(pool.submit(() -> 
+						writePage(y, lang, doctype, base, type, types, rdfOut, csvOut, rdf, csv, writers)));
+					names.add(rdfOut + " and " + csvOut);
 				}
-				List<LegalDoc> docs = PARSER.parse(html, lang);
-				
-				Path rdfOut = Paths.get(outdir, doctype + "-" + year + ".nt");
-				LOG.info("Writing docs to file {}", rdfOut);
-				rdf.write(docs, rdfOut, year, type, types);
-				
-				Path csvOut = Paths.get(outdir, doctype + "-" + year + ".csv");			
-				LOG.info("Writing docs to file {}", csvOut);
-				csv.write(docs, csvOut, year, type, types);
 			}
+			for (int i = 0; i < tasks.size(); i++) {
+				try {
+					LOG.info("Wrote {} docs to files {}", tasks.get(i).get(), names.get(i));
+				} catch (ExecutionException ee) {
+					LOG.error("Failed writing {}: {}", names.get(i), ee.getCause().getMessage());
+					failed++;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+			writers.shutdownNow();
+			if (compressors != null) {
+				compressors.shutdownNow();
+			}
+		}
+		
+		if (!READONLY) {
+			CACHE.commit();
+		}
+		if (PARSER.getFallbacks() > 0) {
+			LOG.warn("Unexpected page structure, selectors used {} times for {} rows", 
+								PARSER.getFallbacks(), PARSER.getRows());
+		}
+		LOG.info("Date cache: {} hits, {} misses", DateParser.getHits(), DateParser.getMisses());
+		if (failed > 0) {
+			throw new IOException("Failed writing " + failed + " of " + tasks.size() + " pages");
 		}
 	}
 				
@@ -227,8 +555,12 @@ public class Main {
 		if (start < 1800 || start > end) {
 			exit(-2, "Invalid start year");
 		}
-	
-		getMap(cli.getOptionValue("c", "cache"));	
+		
+		PARSER = new PageParser(
+					Duration.ofSeconds(Integer.valueOf(cli.getOptionValue("k", "30"))),
+					Duration.ofSeconds(Integer.valueOf(cli.getOptionValue("r", "90"))));
+		
+		TRUSTED = cli.hasOption("x");
 		
 		// Map language to (name of) types
 		Map<String,String> types = new HashMap();
@@ -236,17 +568,30 @@ public class Main {
 		types.put("fr", cli.getOptionValue("f"));
 		
 		try {
+			if (cli.hasOption("g")) {
+				getMap(cli.getOptionValue("c", "cache"));
+			} else {
+				getMapReadOnly(cli.getOptionValue("c", "cache"));
+			}
+			
 			String base = getBase(cli.getOptionValue("b"));
 			
 			if (cli.hasOption("g")) {
-				getPages(start, end, base, types, cli.getOptionValue("w"));
+				// only go faster than the initial wait when explicitly allowed
+				String wait = cli.getOptionValue("w", "10");
+				getPages(start, end, base, types, wait, 
+						cli.getOptionValue("l", wait), cli.getOptionValue("p", "4"),
+						CommitPolicy.parse(cli.getOptionValue("q", "year")));
 			}
 			writePages(start, end, base, cli.getOptionValue("t"), types, 
-												cli.getOptionValue("o", "."));
+						cli.getOptionValue("o", "."), Integer.valueOf(cli.getOptionValue("j", "1")),
+						Compression.parse(cli.getOptionValue("z", "none")));
 		} catch (IOException ex) {
 			exit(-4, ex.getMessage());
 		} catch (InterruptedException ex) {
 			exit(-5, "Interrupted");
+		} catch (IllegalArgumentException ex) {
+			exit(-3, ex.getMessage());
 		}
 	}	
 }
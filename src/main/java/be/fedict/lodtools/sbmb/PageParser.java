@@ -27,19 +27,52 @@ package be.fedict.lodtools.sbmb;
 
 import be.fedict.lodtools.sbmb.helper.DateParser;
 import be.fedict.lodtools.sbmb.helper.LegalDoc;
+import be.fedict.lodtools.sbmb.helper.Page;
+import be.fedict.lodtools.sbmb.helper.PageMeta;
+import be.fedict.lodtools.sbmb.helper.RetryAfterException;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
 
-import org.jsoup.Jsoup;
+import org.jsoup.HttpStatusException;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.jsoup.safety.Cleaner;
 import org.jsoup.safety.Safelist;
 import org.jsoup.select.Elements;
 
@@ -54,20 +87,216 @@ import org.slf4j.LoggerFactory;
 public class PageParser {
 
 	private final static Logger LOG = LoggerFactory.getLogger(PageParser.class);
-	private final static Pattern TITLE
-		= Pattern.compile("^((\\d{1,2}|1er)\\.? [a-zA-Z]+ \\d{4})([ ._-]+)(.+)$");
+	
+	/** Version of the parser, to be increased when the parsed result changes */
+	public final static int VERSION = 3;
+	
 	private final static Safelist SAFE = Safelist.relaxed().addTags("font");
 
+	// expected structure of the overview page, and selectors as fallback
+	private final static String[] PATH_TITLE = { "font" };
+	private final static String[] PATH_PUB = { "b", "font" };
+	private final static String[] PATH_SRC = { "font", "font", "b", "font" };
+	
+	private final static Evaluator SEL_DESC = QueryParser.parse("td:nth-child(2)");
+	private final static Evaluator SEL_JUST = QueryParser.parse("td:nth-child(3)");
+	private final static Evaluator SEL_TITLE = QueryParser.parse("font");
+	private final static Evaluator SEL_PUB = QueryParser.parse("font b font");
+	private final static Evaluator SEL_SRC = QueryParser.parse("font font font b font");
+
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+
+	private final HttpClient client;
+	private final Duration readTimeout;
+
+	/**
+	 * Follow a path of direct child elements, taking the first child with the expected tag
+	 *
+	 * @param el start element
+	 * @param tags tags along the path
+	 * @return element or null when the structure doesn't match
+	 */
+	private static Element path(Element el, String[] tags) {
+		for (String tag: tags) {
+			Element found = null;
+			for (int i = 0; i < el.childrenSize() && found == null; i++) {
+				Element child = el.child(i);
+				if (child.normalName().equals(tag)) {
+					found = child;
+				}
+			}
+			if (found == null) {
+				return null;
+			}
+			el = found;
+		}
+		return el;
+	}
+
+	/**
+	 * Find element using the known structure of the overview page, 
+	 * falling back to a (slower) selector when the structure does not match
+	 *
+	 * @param el start element
+	 * @param tags tags along the path
+	 * @param fallback selector
+	 * @return element or null
+	 */
+	private Element find(Element el, String[] tags, Evaluator fallback) {
+		Element found = path(el, tags);
+		if (found != null) {
+			return found;
+		}
+		found = el.selectFirst(fallback);
+		if (found != null) {
+			fallbacks.incrementAndGet();
+		}
+		return found;
+	}
+
+	/**
+	 * Get n-th cell of a row, 
+	 * falling back to a (slower) selector when the structure does not match
+	 *
+	 * @param row table row
+	 * @param n position, starting with 1
+	 * @param fallback selector
+	 * @return table cell or null
+	 */
+	private Element cell(Element row, int n, Evaluator fallback) {
+		if (row.childrenSize() >= n) {
+			Element td = row.child(n - 1);
+			if (td.normalName().equals("td")) {
+				return td;
+			}
+		}
+		Element found = row.selectFirst(fallback);
+		if (found != null) {
+			fallbacks.incrementAndGet();
+		}
+		return found;
+	}
+
+	/**
+	 * Get number of parsed rows
+	 *
+	 * @return number of rows
+	 */
+	public long getRows() {
+		return rows.get();
+	}
+
+	/**
+	 * Get number of times a selector had to be used, 
+	 * because the structure of the page did not match the expected structure
+	 *
+	 * @return number of times
+	 */
+	public long getFallbacks() {
+		return fallbacks.get();
+	}
+
+	/**
+	 * Check if character is an ASCII digit
+	 * 
+	 * @param c character
+	 * @return true if digit
+	 */
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Check if character is an ASCII letter
+	 * 
+	 * @param c character
+	 * @return true if letter
+	 */
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Find the end of the date at the start of a title, 
+	 * e.g. "1 januari 2017", "1er janvier 2017" or "1. januari 2017"
+	 * 
+	 * @param t title
+	 * @return end position of the date or -1 if there is no date
+	 */
+	static int dateEnd(String t) {
+		int len = t.length();
+		int i = 0;
+
+		// day
+		while (i < len && i < 2 && isDigit(t.charAt(i))) {
+			i++;
+		}
+		if (i == 0) {
+			return -1;
+		}
+		if (i < len && t.charAt(i) != '.' && t.charAt(i) != ' ' && t.startsWith("1er")) {
+			i = 3;
+		}
+		if (i < len && t.charAt(i) == '.') {
+			i++;
+		}
+		if (i >= len || t.charAt(i) != ' ') {
+			return -1;
+		}
+		// month
+		int start = ++i;
+		while (i < len && isLetter(t.charAt(i))) {
+			i++;
+		}
+		if (i == start || i >= len || t.charAt(i) != ' ') {
+			return -1;
+		}
+		// year
+		start = ++i;
+		while (i < len && i - start < 4 && isDigit(t.charAt(i))) {
+			i++;
+		}
+		return (i - start == 4) ? i : -1;
+	}
+
+	/**
+	 * Find the start of the actual title, after the date and one or more separators.
+	 * At least one character is left for the title, which cannot contain line breaks.
+	 * 
+	 * @param t title
+	 * @param end end position of the date
+	 * @return start position of the title or -1 if there is no title
+	 */
+	static int titleStart(String t, int end) {
+		int len = t.length();
+		int i = end;
+		while (i < len && " ._-".indexOf(t.charAt(i)) >= 0) {
+			i++;
+		}
+		if (i == end || (i == len && i - end < 2)) {
+			return -1;
+		}
+		int start = (i < len) ? i : len - 1;
+		for (int j = start; j < len; j++) {
+			char c = t.charAt(j);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+				return -1;
+			}
+		}
+		return start;
+	}
+
 	/**
 	 * Parse description from overview page
 	 *
 	 * @param td table cell
-	 * @param doc legal doc
+	 * @param doc legal doc builder
 	 * @param lang language code
 	 * @return true on success
 	 */
-	private boolean parseDesc(Element td, LegalDoc doc, String lang) {
-		Element rawtitle = td.selectFirst("font");
+	private boolean parseDesc(Element td, LegalDoc.Builder doc, String lang) {
+		Element rawtitle = find(td, PATH_TITLE, SEL_TITLE);
 		if (rawtitle == null) {
 			LOG.error("No title found");
 			return false;
@@ -82,10 +311,11 @@ public class PageParser {
 		String docstr = "";
 		String title = t;
 
-		Matcher m = TITLE.matcher(t);
-		if (m.matches() && m.groupCount() == 4) {
-			docstr = m.group(1);
-			title = m.group(4);
+		int end = dateEnd(t);
+		int start = (end > 0) ? titleStart(t, end) : -1;
+		if (start > 0) {
+			docstr = t.substring(0, end);
+			title = t.substring(start);
 		} else {
 			LOG.error("Could not split title {}", t);
 		}
@@ -95,7 +325,7 @@ public class PageParser {
 			LOG.error("Could not parse doc date {}", docstr);
 		}
 
-		Element pubel = rawtitle.selectFirst("font b font");
+		Element pubel = find(rawtitle, PATH_PUB, SEL_PUB);
 		if (pubel == null) {
 			LOG.error("No publication element found");
 			return false;
@@ -106,12 +336,13 @@ public class PageParser {
 			LOG.error("Could not parse pub date {}", pubel.ownText());
 		}
 
-		Element srcel = rawtitle.selectFirst("font font font b font");
+		Element srcel = find(rawtitle, PATH_SRC, SEL_SRC);
 		if (srcel == null) {
 			LOG.warn("No publication source found for {}", t);
 		}
 		String source = (srcel != null) ? srcel.ownText() : null;
-		doc.setDesc(docdate, title, pubdate, source);
+		doc.title(title).source(source)
+			.docDay(LegalDoc.toDay(docdate)).pubDay(LegalDoc.toDay(pubdate));
 		return true;
 	}
 
@@ -119,32 +350,28 @@ public class PageParser {
 	 * Parse links to Justel/MB from overview
 	 *
 	 * @param td html table cell
-	 * @param doc legal document
+	 * @param doc legal document builder
 	 * @return true on success
 	 */
-	private boolean parseLinks(Element td, LegalDoc doc) {
-		Elements links = td.select("a");
+	private boolean parseLinks(Element td, LegalDoc.Builder doc) {
+		Elements links = td.getElementsByTag("a");
 		if (links == null || links.isEmpty()) {
 			LOG.error("No links found {}", td.html());
 			return false;
 		}
 		for (Element link : links) {
-			try {
-				URL u = new URL(link.attr("href"));
-				String urlParts[] = u.getPath().split("/");
-				String numac = urlParts[6];
-				doc.setLocalId(numac);
-				if (link.ownText().trim().startsWith("Justel")) {
-					doc.setId(u.toString().replaceFirst("/justel", ""));
-					doc.setJustel(u);
-				} else {
-					doc.setSbmb(u);
-				}
-			} catch (MalformedURLException ex) {
-				LOG.error(ex.getMessage());
+			String href = link.attr("href");
+			if (LegalDoc.numac(href) == null) {
+				LOG.error("Invalid link {}", href);
+				continue;
+			}
+			if (link.ownText().trim().startsWith("Justel")) {
+				doc.justel(href);
+			} else {
+				doc.sbmb(href);
 			}
 		}
-		if (doc.getId() == null) {
+		if (doc.justel() == null) {
 			LOG.error("No links found");
 			return false;
 		}
@@ -152,43 +379,178 @@ public class PageParser {
 	}
 
 	/**
-	 * Convert html pages to a list of legal doc
+	 * Convert a table row to a legal doc
 	 *
-	 * @param html HTML
+	 * @param row table row
 	 * @param lang language code
-	 * @return list of legal docs
-	 * @throws IOException
+	 * @return legal doc or null
 	 */
-	public List<LegalDoc> parse(String html, String lang) throws IOException {
-		List<LegalDoc> l = new ArrayList();
+	private LegalDoc parseRow(Element row, String lang) {
+		Element tdDesc = cell(row, 2, SEL_DESC);
+		if (tdDesc == null) { // row separator
+			return null;
+		}
+		rows.incrementAndGet();
+		LegalDoc.Builder legal = new LegalDoc.Builder().lang(lang);
 
-		Document doc = Jsoup.parse(Jsoup.clean(html, SAFE));
+		if (parseDesc(tdDesc, legal, lang) == false) {
+			return null;
+		}
 
-		Elements rows = doc.select("tr");
-		for (Element row : rows) {
-			Element tdDesc = row.selectFirst("td:nth-child(2)");
-			if (tdDesc == null) { // row separator
-				continue;
+		Element tdJust = cell(row, 3, SEL_JUST);
+		if (tdJust == null) {
+			LOG.error("No third column found {}", row.html());
+			return null;
+		}
+		if (parseLinks(tdJust, legal) == false) {
+			return null;
+		}
+		return legal.build();
+	}
+
+	/**
+	 * Detach a completed row from the (partially) parsed page, 
+	 * cleaning it unless it is trusted.
+	 * Rows within rows of nested tables are copied instead.
+	 *
+	 * @param row table row
+	 * @param trusted skip removal of unsafe tags and attributes
+	 * @return detached row
+	 */
+	private static Element detachRow(Element row, boolean trusted) {
+		Element parent = row.parent();
+		boolean nested = (parent != null) && (parent.closest("tr") != null);
+		
+		if (trusted) {
+			if (!nested) {
+				row.remove();
 			}
-			LegalDoc legal = new LegalDoc();
-			legal.setLang(lang);
+			return row;
+		}
+		Document shell = Document.createShell("");
+		shell.body().appendChild(nested ? row.clone() : row);
+		return new Cleaner(SAFE).clean(shell).body().firstElementChild();
+	}
 
-			if (parseDesc(tdDesc, legal, lang) == false) {
-				continue;
+	/**
+	 * Iterator of legal docs, reading the page row by row
+	 */
+	private class RowIterator implements Iterator<LegalDoc> {
+		private final StreamParser streamer;
+		private final String lang;
+		private final boolean trusted;
+		private LegalDoc next;
+
+		/**
+		 * Read rows until the next legal doc is found
+		 *
+		 * @return legal doc or null at the end of the page
+		 */
+		private LegalDoc advance() {
+			try {
+				Element row;
+				while ((row = streamer.selectNext("tr")) != null) {
+					Element detached = detachRow(row, trusted);
+					if (detached == null) {
+						continue;
+					}
+					LegalDoc legal = parseRow(detached, lang);
+					if (legal != null) {
+						return legal;
+					}
+				}
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
 			}
+			streamer.close();
+			return null;
+		}
 
-			Element tdJust = row.selectFirst("td:nth-child(3)");
-			if (tdJust == null) {
-				LOG.error("No third column found {}", row.html());
-				continue;
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				next = advance();
 			}
-			if (parseLinks(tdJust, legal) == false) {
-				continue;
+			return next != null;
+		}
+
+		@Override
+		public LegalDoc next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
 			}
+			LegalDoc legal = next;
+			next = null;
+			return legal;
+		}
 
-			l.add(legal);
+		/**
+		 * Constructor
+		 *
+		 * @param streamer stream parser
+		 * @param lang language code
+		 * @param trusted skip removal of unsafe tags and attributes
+		 */
+		RowIterator(StreamParser streamer, String lang, boolean trusted) {
+			this.streamer = streamer;
+			this.lang = lang;
+			this.trusted = trusted;
+		}
+	}
+
+	/**
+	 * Convert html page to a stream of legal docs.
+	 * The page is read row by row, so only the current row is kept in memory.
+	 *
+	 * @param in HTML reader
+	 * @param lang language code
+	 * @param trusted skip removal of unsafe tags and attributes
+	 * @return stream of legal docs, to be closed after use
+	 */
+	public Stream<LegalDoc> stream(Reader in, String lang, boolean trusted) {
+		StreamParser streamer = new StreamParser(Parser.htmlParser()).parse(in, "");
+		Iterator<LegalDoc> it = new RowIterator(streamer, lang, trusted);
+		return StreamSupport.stream(
+					Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL),
+					false).onClose(streamer::close);
+	}
+
+	/**
+	 * Get URL of an overview page
+	 *
+	 * @param base base URL
+	 * @param type legal type
+	 * @param year year
+	 * @return URL as string
+	 */
+	public static String getURL(String base, String type, int year) {
+		return base + "/" + type + "/" + year;
+	}
+
+	/**
+	 * Get the delay requested by the server in the Retry-After header,
+	 * either as a number of seconds or as a date
+	 *
+	 * @param res HTTP response
+	 * @return delay in milliseconds, or 0 when not specified
+	 */
+	private static long retryAfter(HttpResponse<?> res) {
+		String val = res.headers().firstValue("Retry-After").orElse("").trim();
+		if (val.isEmpty()) {
+			return 0;
+		}
+		try {
+			return Math.max(0, Long.parseLong(val) * 1000);
+		} catch (NumberFormatException nfe) {
+			//
+		}
+		try {
+			ZonedDateTime date = ZonedDateTime.parse(val, DateTimeFormatter.RFC_1123_DATE_TIME);
+			return Math.max(0, Duration.between(ZonedDateTime.now(), date).toMillis());
+		} catch (DateTimeParseException dte) {
+			LOG.warn("Invalid Retry-After {}", val);
+			return 0;
 		}
-		return l;
 	}
 
 	/**
@@ -198,18 +560,144 @@ public class PageParser {
 	 * @param type legal type
 	 * @param year year (1800 or later)
 	 * @param lang language code
-	 * @return body of page
-	 * @throws IOException
+	 * @return page
+	 * @throws IOException on network, server (5xx) or too many requests (429) errors
 	 */
-	public Document get(String base, String type, int year, String lang) throws IOException {
-		String url = base + "/" + type + "/" + year;
+	public Page get(String base, String type, int year, String lang) throws IOException {
+		return get(base, type, year, lang, null);
+	}
+
+	/**
+	 * Get HTML page, unless it was not modified since it was last fetched
+	 *
+	 * @param base base URL
+	 * @param type legal type
+	 * @param year year (1800 or later)
+	 * @param lang language code
+	 * @param prev cache validators of the previous fetch, or null
+	 * @return page, without body when not modified
+	 * @throws IOException on network, server (5xx) or too many requests (429) errors
+	 */
+	public Page get(String base, String type, int year, String lang, PageMeta prev) 
+															throws IOException {
+		String url = getURL(base, type, year);
 		LOG.info("Using URL {}", url);
 
-		Document doc = Jsoup.connect(url).ignoreHttpErrors(true)
-							.timeout(90_000).maxBodySize(8_000_000)
-							.execute()
-							.charset("ISO-8859-1").parse();
-		doc.body().attr("lang", lang);
-		return doc;
+		HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(url))
+										.timeout(readTimeout)
+										.header("Accept-Encoding", "gzip");
+		if (prev != null && prev.getEtag() != null) {
+			req.header("If-None-Match", prev.getEtag());
+		}
+		if (prev != null && prev.getLastModified() != null) {
+			req.header("If-Modified-Since", prev.getLastModified());
+		}
+
+		// no limit on the size, so download to disk instead of keeping it in memory.
+		// The timeout covers the whole download, not only waiting for the headers
+		Path raw = Files.createTempFile("sbmb", ".download");
+		// response time of the server, without the time needed to download large pages
+		long start = System.nanoTime();
+		AtomicLong headers = new AtomicLong(start);
+		CompletableFuture<HttpResponse<Path>> future = client.sendAsync(req.build(), info -> {
+			headers.set(System.nanoTime());
+			return HttpResponse.BodySubscribers.ofFile(raw);
+		});
+		HttpResponse<Path> res;
+		try {
+			res = future.get(readTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException te) {
+			future.cancel(true);
+			Files.deleteIfExists(raw);
+			throw new HttpTimeoutException("Timed out getting " + url);
+		} catch (InterruptedException ie) {
+			future.cancel(true);
+			Files.deleteIfExists(raw);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while getting " + url);
+		} catch (ExecutionException ee) {
+			Files.deleteIfExists(raw);
+			Throwable cause = ee.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+
+		long latency = TimeUnit.NANOSECONDS.toMillis(headers.get() - start);
+		int status = res.statusCode();
+		if (status == 429 || status == 503) {
+			Files.deleteIfExists(raw);
+			throw new RetryAfterException("Too many requests", status, url, retryAfter(res));
+		}
+		if (status >= 500) {
+			Files.deleteIfExists(raw);
+			throw new HttpStatusException("Server error", status, url);
+		}
+		if (prev != null && status == 304) {
+			Files.deleteIfExists(raw);
+			LOG.info("Not modified {}", url);
+			return new Page(url, null, prev, latency);
+		}
+		// don't replace a cached page by an error page
+		if (prev != null && (status < 200 || status >= 300)) {
+			Files.deleteIfExists(raw);
+			LOG.warn("Status {} for {}, keeping cached page", status, url);
+			return new Page(url, null, prev, latency);
+		}
+
+		MessageDigest md = PageMeta.newDigest();
+		Path file = raw;
+		try {
+			if (res.headers().firstValue("Content-Encoding")
+								.filter(e -> e.equalsIgnoreCase("gzip")).isPresent()) {
+				file = Files.createTempFile("sbmb", ".html");
+				try (InputStream in = new DigestInputStream(
+										new GZIPInputStream(Files.newInputStream(raw)), md)) {
+					Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+				Files.delete(raw);
+			} else {
+				try (InputStream in = new DigestInputStream(Files.newInputStream(raw), md)) {
+					in.transferTo(OutputStream.nullOutputStream());
+				}
+			}
+		} catch (IOException ioe) {
+			Files.deleteIfExists(raw);
+			Files.deleteIfExists(file);
+			throw ioe;
+		}
+
+		String hash = PageMeta.hash(md);
+		PageMeta meta = new PageMeta(res.headers().firstValue("ETag").orElse(null), 
+							res.headers().firstValue("Last-Modified").orElse(null), hash);
+		if (prev != null && hash.equals(prev.getHash())) {
+			Files.deleteIfExists(file);
+			LOG.info("Content unchanged {}", url);
+			return new Page(url, null, meta, latency);
+		}
+		return new Page(url, file, meta, latency);
+	}
+
+	/**
+	 * Constructor, using one shared HTTP client for all requests
+	 * 
+	 * @param connectTimeout connection timeout
+	 * @param readTimeout timeout for getting the complete response
+	 */
+	public PageParser(Duration connectTimeout, Duration readTimeout) {
+		this.readTimeout = readTimeout;
+		this.client = HttpClient.newBuilder()
+								.version(HttpClient.Version.HTTP_2)
+								.followRedirects(HttpClient.Redirect.NORMAL)
+								.connectTimeout(connectTimeout)
+								.build();
+	}
+
+	/**
+	 * Constructor, using default timeouts
+	 */
+	public PageParser() {
+		this(Duration.ofSeconds(30), Duration.ofSeconds(90));
 	}
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Output stream compressing fixed-size blocks in parallel on a thread pool.
+ * Compressed blocks are written in order, and only a few blocks are kept in memory.
+ * 
+ * @author Bart.Hanssens
+ */
+public class BlockCompressorOutputStream extends OutputStream {
+	private final static int BLOCK = 1024 * 1024;
+	private final static int MAX_PENDING = 4;
+	
+	private final OutputStream out;
+	private final Compression compression;
+	private final ExecutorService pool;
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+	private byte[] block = new byte[BLOCK];
+	private int pos = 0;
+	private long blocks = 0;
+	private boolean closed = false;
+
+	/**
+	 * Write the oldest compressed block, waiting for it if needed
+	 * 
+	 * @throws IOException 
+	 */
+	private void writeOldest() throws IOException {
+		Future<byte[]> f = pending.removeFirst();
+		try {
+			out.write(f.get());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException ee) {
+			Throwable t = ee.getCause();
+			throw (t instanceof IOException) ? (IOException) t : new IOException(t);
+		}
+	}
+
+	/**
+	 * Hand over the current block to the thread pool
+	 * 
+	 * @throws IOException 
+	 */
+	private void submit() throws IOException {
+		byte[] data = block;
+		int len = pos;
+		pending.addLast(pool.submit(() -> compression.compress(data, len)));
+		blocks++;
+		block = new byte[BLOCK];
+		pos = 0;
+		while (pending.size() > MAX_PENDING) {
+			writeOldest();
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		block[pos++] = (byte) b;
+		if (pos == BLOCK) {
+			submit();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, BLOCK - pos);
+			System.arraycopy(b, off, block, pos, n);
+			pos += n;
+			off += n;
+			len -= n;
+			if (pos == BLOCK) {
+				submit();
+			}
+		}
+	}
+
+	/**
+	 * Compress and write all buffered data.
+	 * This ends the current block, so flushing too often makes compression less efficient.
+	 * 
+	 * @throws IOException 
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (pos > 0) {
+			submit();
+		}
+		while (!pending.isEmpty()) {
+			writeOldest();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			// an empty file still needs one (empty) member / frame
+			if (pos > 0 || blocks == 0) {
+				submit();
+			}
+			while (!pending.isEmpty()) {
+				writeOldest();
+			}
+		} finally {
+			for (Future<byte[]> f: pending) {
+				f.cancel(true);
+			}
+			out.close();
+		}
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param out underlying output stream
+	 * @param compression compression
+	 * @param pool thread pool for compressing blocks
+	 */
+	public BlockCompressorOutputStream(OutputStream out, Compression compression, 
+										ExecutorService pool) {
+		this.out = out;
+		this.compression = compression;
+		this.pool = pool;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+/**
+ * When to commit pages to the cache: every N pages, every T seconds, or at the end of a year.
+ * 
+ * @author Bart.Hanssens
+ */
+public class CommitPolicy {
+	private final int pages;
+	private final long millis;
+	private int count = 0;
+	private long last = System.currentTimeMillis();
+
+	/**
+	 * Parse policy: "year", number of pages (e.g. "50") or seconds (e.g. "30s")
+	 * 
+	 * @param str policy string
+	 * @return commit policy
+	 * @throws IllegalArgumentException when policy is not valid
+	 */
+	public static CommitPolicy parse(String str) {
+		if (str == null || str.equals("year")) {
+			return new CommitPolicy(0, 0);
+		}
+		try {
+			if (str.endsWith("s")) {
+				long secs = Long.parseLong(str.substring(0, str.length() - 1));
+				return new CommitPolicy(0, secs * 1000);
+			}
+			return new CommitPolicy(Integer.parseInt(str), 0);
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Invalid commit policy " + str);
+		}
+	}
+
+	/**
+	 * Register a page and check if it is time to commit
+	 * 
+	 * @return true if changes must be committed
+	 */
+	public boolean page() {
+		count++;
+		return (pages > 0 && count >= pages) 
+				|| (millis > 0 && System.currentTimeMillis() - last >= millis);
+	}
+
+	/**
+	 * Check if changes must be committed at the end of a year
+	 * 
+	 * @return true if changes must be committed
+	 */
+	public boolean year() {
+		return pages == 0 && millis == 0 && count > 0;
+	}
+
+	/**
+	 * Reset counters after a commit
+	 */
+	public void committed() {
+		count = 0;
+		last = System.currentTimeMillis();
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param pages commit after this number of pages, or 0
+	 * @param millis commit after this number of milliseconds, or 0
+	 */
+	public CommitPolicy(int pages, long millis) {
+		this.pages = pages;
+		this.millis = millis;
+	}
+}
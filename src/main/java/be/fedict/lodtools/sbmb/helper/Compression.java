@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import com.github.luben.zstd.Zstd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of output files.
+ * 
+ * Files are compressed block by block, each block being a complete gzip member or zstd frame,
+ * so blocks can be compressed in parallel and simply concatenated (as done by pigz).
+ * 
+ * @author Bart.Hanssens
+ */
+public enum Compression {
+	NONE(""),
+	GZIP(".gz"),
+	ZSTD(".zst");
+	
+	private final static int ZSTD_LEVEL = 3;
+	
+	private final String extension;
+
+	/**
+	 * Get file name extension, including the dot
+	 * 
+	 * @return extension or empty string
+	 */
+	public String getExtension() {
+		return extension;
+	}
+
+	/**
+	 * Compress a block
+	 * 
+	 * @param data uncompressed data
+	 * @param len number of bytes to compress
+	 * @return compressed block
+	 * @throws IOException 
+	 */
+	byte[] compress(byte[] data, int len) throws IOException {
+		switch (this) {
+			case GZIP:
+				ByteArrayOutputStream bos = new ByteArrayOutputStream(len / 4 + 64);
+				try (GZIPOutputStream gz = new GZIPOutputStream(bos)) {
+					gz.write(data, 0, len);
+				}
+				return bos.toByteArray();
+			case ZSTD:
+				return Zstd.compress(Arrays.copyOf(data, len), ZSTD_LEVEL);
+			default:
+				return Arrays.copyOf(data, len);
+		}
+	}
+
+	/**
+	 * Open (compressed) output stream
+	 * 
+	 * @param file output file
+	 * @param pool thread pool for compressing blocks
+	 * @return output stream
+	 * @throws IOException 
+	 */
+	public OutputStream open(Path file, ExecutorService pool) throws IOException {
+		OutputStream out = Files.newOutputStream(file);
+		return (this == NONE) ? out : new BlockCompressorOutputStream(out, this, pool);
+	}
+
+	/**
+	 * Get compression by name
+	 * 
+	 * @param name "none", "gzip" or "zstd"
+	 * @return compression
+	 * @throws IllegalArgumentException when the name is not known
+	 */
+	public static Compression parse(String name) {
+		switch (name.toLowerCase()) {
+			case "none":
+				return NONE;
+			case "gz":
+			case "gzip":
+				return GZIP;
+			case "zst":
+			case "zstd":
+				return ZSTD;
+			default:
+				throw new IllegalArgumentException("Unknown compression " + name);
+		}
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param extension file name extension
+	 */
+	Compression(String extension) {
+		this.extension = extension;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adapt the request rate to a host, based on the observed latency and errors.
+ * 
+ * Fast responses gradually shorten the interval between requests,
+ * slow responses, timeouts and server errors double it.
+ * A random jitter of up to one interval is added to every wait,
+ * without ever starting two requests less than one interval apart.
+ * 
+ * @author Bart.Hanssens
+ */
+public class CrawlController {
+	private final static Logger LOG = LoggerFactory.getLogger(CrawlController.class);
+
+	private final static double SPEEDUP = 0.9;
+	private final static double BACKOFF = 2.0;
+
+	private final RateLimiter limiter;
+	private final long min;
+	private final long max;
+	private final long slow;
+
+	/**
+	 * Wait for a token, plus a random jitter between 0 and the current interval
+	 * 
+	 * @throws InterruptedException 
+	 */
+	public void acquire() throws InterruptedException {
+		limiter.acquire();
+	}
+
+	/**
+	 * Set new interval, within bounds
+	 * 
+	 * @param interval interval in milliseconds
+	 */
+	private synchronized void adjust(double interval) {
+		long old = limiter.getInterval();
+		long l = Math.max(min, Math.min(max, (long) interval));
+		if (l != old) {
+			LOG.debug("Interval changed from {} to {} ms", old, l);
+			limiter.setInterval(l);
+		}
+	}
+
+	/**
+	 * Report a successful request
+	 * 
+	 * @param latency time until the response headers were received, in milliseconds
+	 */
+	public void success(long latency) {
+		long interval = limiter.getInterval();
+		if (latency > slow) {
+			LOG.warn("Slow response ({} ms), backing off", latency);
+			adjust(interval * BACKOFF);
+		} else {
+			adjust(interval * SPEEDUP);
+		}
+	}
+
+	/**
+	 * Report a failed request (timeout, server error, too many requests)
+	 */
+	public void failure() {
+		long interval = limiter.getInterval();
+		LOG.warn("Request failed, backing off to {} ms", Math.min(max, (long) (interval * BACKOFF)));
+		adjust(interval * BACKOFF);
+	}
+
+	/**
+	 * Do not start new requests for some time, e.g. when asked by the server
+	 * 
+	 * @param delay delay in milliseconds
+	 */
+	public void pause(long delay) {
+		limiter.pause(Math.min(max, delay));
+	}
+
+	/**
+	 * Get current interval between two requests
+	 * 
+	 * @return interval in milliseconds
+	 */
+	public long getInterval() {
+		return limiter.getInterval();
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param start initial interval between requests, in milliseconds
+	 * @param min minimum interval, in milliseconds
+	 * @param max maximum interval, in milliseconds
+	 * @param slow response time considered to be slow, in milliseconds
+	 */
+	public CrawlController(long start, long min, long max, long slow) {
+		this.min = min;
+		this.max = Math.max(min, max);
+		this.slow = slow;
+		this.limiter = new RateLimiter(Math.max(min, Math.min(this.max, start)), 1, true);
+	}
+}
@@ -26,17 +26,21 @@
 package be.fedict.lodtools.sbmb.helper;
 
 import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Date parser helper class
+ * Date parser helper class.
+ * Results (including failures) are cached, since the same dates occur many times.
  * 
  * @author Bart.Hanssens
  */
@@ -44,11 +48,81 @@ public class DateParser {
 	private final static Logger LOG = LoggerFactory.getLogger(DateParser.class);
 	
 	private final static DateTimeFormatter SHORT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
-	private final static Map<String, DateTimeFormatter> LONGS = new HashMap<>();
+	private final static Map<String, String[][]> MONTHS = new HashMap<>();
 	
 	static {
-		LONGS.put("nl", DateTimeFormatter.ofPattern("d MMMM yyyy", Locale.forLanguageTag("nl-BE")));
-		LONGS.put("fr", DateTimeFormatter.ofPattern("d MMMM yyyy", Locale.forLanguageTag("fr-BE")));
+		MONTHS.put("nl", new String[][] {
+			{ "januari" }, { "februari" }, { "maart" }, { "april" }, { "mei" }, { "juni" },
+			{ "juli" }, { "augustus" }, { "september" }, { "oktober" }, { "november" }, { "december" }
+		});
+		MONTHS.put("fr", new String[][] {
+			{ "janvier" }, { "février", "fevrier" }, { "mars" }, { "avril" }, { "mai" }, { "juin" },
+			{ "juillet" }, { "août", "aout" }, { "septembre" }, { "octobre" }, { "novembre" }, 
+			{ "décembre", "decembre" }
+		});
+	}
+	
+	// dates repeat a lot (many acts share a publication day), so keep the results
+	private final static int MAX_CACHE = 16_384;
+	// marker for strings that could not be parsed
+	private final static LocalDate FAILED = LocalDate.MIN;
+	
+	private final static Map<String, LocalDate> SHORTS = new ConcurrentHashMap<>();
+	private final static Map<String, Map<String, LocalDate>> LONGS = new ConcurrentHashMap<>();
+	private final static AtomicLong HITS = new AtomicLong();
+	private final static AtomicLong MISSES = new AtomicLong();
+	
+	/**
+	 * Get number of cache hits
+	 * 
+	 * @return number of hits
+	 */
+	public static long getHits() {
+		return HITS.get();
+	}
+
+	/**
+	 * Get number of cache misses
+	 * 
+	 * @return number of misses
+	 */
+	public static long getMisses() {
+		return MISSES.get();
+	}
+	
+	/**
+	 * Get cached result, or null when not (yet) in cache
+	 * 
+	 * @param cache cache
+	 * @param str date string
+	 * @return cached date, FAILED marker or null
+	 */
+	private static LocalDate lookup(Map<String, LocalDate> cache, String str) {
+		LocalDate date = cache.get(str);
+		if (date != null) {
+			HITS.incrementAndGet();
+		} else {
+			MISSES.incrementAndGet();
+		}
+		return date;
+	}
+	
+	/**
+	 * Store result in cache, including failures.
+	 * The cache is simply emptied when it gets too big, which is good enough
+	 * since the strings are typically confined to one year.
+	 * 
+	 * @param cache cache
+	 * @param str date string
+	 * @param date parsed date or null
+	 * @return parsed date or null
+	 */
+	private static LocalDate store(Map<String, LocalDate> cache, String str, LocalDate date) {
+		if (cache.size() >= MAX_CACHE) {
+			cache.clear();
+		}
+		cache.put(str, (date != null) ? date : FAILED);
+		return date;
 	}
 	
 	/**
@@ -62,32 +136,141 @@ public class DateParser {
 			return null;
 		}
 		
+		LocalDate date = lookup(SHORTS, str);
+		if (date != null) {
+			return (date != FAILED) ? date : null;
+		}
 		try {
-			return LocalDate.parse(str, SHORT);
+			date = LocalDate.parse(str, SHORT);
 		} catch (DateTimeParseException dte) {
-			return null;
+			date = null;
 		}
+		return store(SHORTS, str, date);
 	}
 	
 	/**
-	 * Parse long date string to LocalDate
+	 * Skip dots, which are ignored in long dates
+	 * 
+	 * @param str string
+	 * @param i position
+	 * @return position of next character that is not a dot
+	 */
+	private static int skipDots(String str, int i) {
+		while (i < str.length() && str.charAt(i) == '.') {
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * Check if (part of) a string matches a name, ignoring case and dots
+	 * 
+	 * @param str string
+	 * @param start start position
+	 * @param end end position
+	 * @param name name in lower case
+	 * @return true if matching
+	 */
+	private static boolean matches(String str, int start, int end, String name) {
+		int j = 0;
+		for (int i = start; i < end; i++) {
+			char c = str.charAt(i);
+			if (c == '.') {
+				continue;
+			}
+			if (j >= name.length() || Character.toLowerCase(c) != name.charAt(j)) {
+				return false;
+			}
+			j++;
+		}
+		return j == name.length();
+	}
+	
+	/**
+	 * Find month by (full) name, ignoring dots
+	 * 
+	 * @param str string
+	 * @param start start position of the name
+	 * @param end end position of the name
+	 * @param lang language code
+	 * @return month (1-12) or 0 when not found
+	 */
+	private static int findMonth(String str, int start, int end, String lang) {
+		String[][] months = MONTHS.get(lang);
+		for (int m = 0; m < months.length; m++) {
+			for (String name: months[m]) {
+				if (matches(str, start, end, name)) {
+					return m + 1;
+				}
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Parse long date string (e.g. "1 januari 2017" or "1er janvier 2017") to LocalDate,
+	 * without intermediate strings or exceptions.
 	 * 
 	 * @param str string to parse
 	 * @param lang language/locale code
-	 * @return local date
-	 * @throws DateTimeParseException 
+	 * @return local date or null
 	 */
-	private static LocalDate parseLongLocale(String str, String lang) 
-												throws DateTimeParseException{
-		String d = str.toLowerCase().replaceAll("\\.", "");
+	private static LocalDate parseLongLocale(String str, String lang) {
+		int len = str.length();
+		
+		// day, 1 or 2 digits, or "1er" in French
+		int i = skipDots(str, 0);
+		int day = 0;
+		int digits = 0;
+		while (i < len && str.charAt(i) >= '0' && str.charAt(i) <= '9') {
+			if (++digits > 2) {
+				return null;
+			}
+			day = day * 10 + (str.charAt(i) - '0');
+			i = skipDots(str, i + 1);
+		}
+		if (digits == 0) {
+			return null;
+		}
+		if (day == 1 && digits == 1 && lang.equals("fr") && i + 1 < len 
+				&& Character.toLowerCase(str.charAt(i)) == 'e') {
+			int r = skipDots(str, i + 1);
+			if (r < len && Character.toLowerCase(str.charAt(r)) == 'r') {
+				i = skipDots(str, r + 1);
+			}
+		}
+		if (i >= len || str.charAt(i) != ' ') {
+			return null;
+		}
+		
+		// name of the month
+		i = skipDots(str, i + 1);
+		int start = i;
+		while (i < len && str.charAt(i) != ' ') {
+			i++;
+		}
+		int month = findMonth(str, start, i, lang);
+		if (month == 0 || i >= len || str.charAt(i) != ' ') {
+			return null;
+		}
 		
-		if (lang.equals("fr")) {
-			d = d.replaceFirst("fevrier", "février")
-					.replaceFirst("aout", "août")
-					.replaceFirst("decembre", "décembre")
-					.replaceFirst("1er", "1");
+		// year, 4 digits
+		i = skipDots(str, i + 1);
+		int year = 0;
+		digits = 0;
+		while (i < len && str.charAt(i) >= '0' && str.charAt(i) <= '9') {
+			if (++digits > 4) {
+				return null;
+			}
+			year = year * 10 + (str.charAt(i) - '0');
+			i = skipDots(str, i + 1);
+		}
+		if (digits != 4 || i != len || year == 0 || day == 0 || day > 31) {
+			return null;
 		}
-		return LocalDate.parse(d, LONGS.get(lang));
+		// same as the default (smart) resolver: e.g. 31 april becomes 30 april
+		int last = Month.of(month).length(Year.isLeap(year));
+		return LocalDate.of(year, month, Math.min(day, last));
 	}
 	
 	/**
@@ -102,24 +285,23 @@ public class DateParser {
 			return null;
 		}
 		
-		LocalDate date = null;
+		Map<String, LocalDate> cache = LONGS.computeIfAbsent(lang, k -> new ConcurrentHashMap<>());
+		LocalDate date = lookup(cache, str);
+		if (date != null) {
+			return (date != FAILED) ? date : null;
+		}
 		
-		try {
-			date = parseLongLocale(str, lang);
-		} catch (DateTimeParseException dte) {
-			for(String alt: LONGS.keySet()) {
+		date = parseLongLocale(str, lang);
+		if (date == null) {
+			for(String alt: MONTHS.keySet()) {
 				if (! alt.equals(lang) && date == null) {
 					LOG.warn("Couldn't parse {} in {}, trying {}", str, lang, alt);
 					// fallback 
-					try {
-						date = parseLongLocale(str, alt);
-					} catch (DateTimeParseException dte2) {
-						//
-					}
+					date = parseLongLocale(str, alt);
 				}
 			}
 		}
-		return date;
+		return store(cache, str, date);
 	}
 	
 }
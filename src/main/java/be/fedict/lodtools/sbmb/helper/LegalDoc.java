@@ -25,77 +25,124 @@
  */
 package be.fedict.lodtools.sbmb.helper;
 
-import java.net.URL;
 import java.time.LocalDate;
 
 /**
- * Helper class
+ * Immutable legal document.
+ * 
+ * Dates are stored as epoch days, repeating values (source, language) are interned,
+ * and the identifiers are derived from the Justel link when needed.
  * 
  * @author Bart.Hanssens
  */
 public class LegalDoc {
-	private String id;
-	private String localId;
-	private String title;
-	private String source;
-	private String lang;
-	private URL sbmb;
-	private URL justel; 
-	private LocalDate pubDate;
-	private LocalDate docDate;
-
-	/**
-	 * Get identifier
+	public final static int NO_DATE = Integer.MIN_VALUE;
+	
+	private final String title;
+	private final String source;
+	private final String lang;
+	private final String sbmb;
+	private final String justel;
+	private final int pubDay;
+	private final int docDay;
+
+	/**
+	 * Get the NUMAC from an absolute ELI link, 
+	 * e.g. 2017000001 from https://host/eli/wet/2017/01/01/2017000001/justel
+	 *
+	 * @param href link
+	 * @return NUMAC or null when the link is not valid
+	 */
+	public static String numac(String href) {
+		if (href == null) {
+			return null;
+		}
+		int i = href.indexOf("://");
+		if (i <= 0) {
+			return null;
+		}
+		int end = href.length();
+		for (int j = i + 3; j < end; j++) {
+			char c = href.charAt(j);
+			if (c == '?' || c == '#') {
+				end = j;
+				break;
+			}
+		}
+		// start of the path, NUMAC is the 6th segment
+		int start = href.indexOf('/', i + 3);
+		for (int seg = 1; seg < 6 && start >= 0 && start < end; seg++) {
+			start = href.indexOf('/', start + 1);
+		}
+		if (start < 0 || start >= end) {
+			return null;
+		}
+		int stop = href.indexOf('/', start + 1);
+		if (stop < 0 || stop > end) {
+			stop = end;
+		}
+		return (stop > start + 1) ? href.substring(start + 1, stop) : null;
+	}
+
+	/**
+	 * Get identifier from a Justel link, by removing "/justel"
 	 * 
-	 * @return identifier
+	 * @param justel link
+	 * @return identifier or null
 	 */
-	public String getId() {
-		return id;
+	public static String toId(String justel) {
+		if (justel == null) {
+			return null;
+		}
+		int i = justel.indexOf("/justel");
+		return (i < 0) ? justel : justel.substring(0, i) + justel.substring(i + 7);
 	}
 
 	/**
-	 * Set identifier
+	 * Convert date to epoch day
 	 * 
-	 * @param id identifier 
+	 * @param date date or null
+	 * @return epoch day or NO_DATE
 	 */
-	public void setId(String id) {
-		this.id = id;
+	public static int toDay(LocalDate date) {
+		return (date != null) ? (int) date.toEpochDay() : NO_DATE;
 	}
 
 	/**
-	 * Get local identifier ("NUMAC")
+	 * Convert epoch day to date
 	 * 
-	 * @return identifier
+	 * @param day epoch day or NO_DATE
+	 * @return date or null
 	 */
-	public String getLocalId() {
-		return localId;
+	public static LocalDate toDate(int day) {
+		return (day != NO_DATE) ? LocalDate.ofEpochDay(day) : null;
 	}
 
 	/**
-	 * Set local identifier ("NUMAC")
+	 * Get identifier, which is the Justel link without "/justel"
 	 * 
-	 * @param localId identifier 
+	 * @return identifier or null
 	 */
-	public void setLocalId(String localId) {
-		this.localId = localId;
+	public String getId() {
+		return toId(justel);
 	}
 
 	/**
-	 * Get title
+	 * Get local identifier ("NUMAC")
 	 * 
-	 * @return title
+	 * @return identifier or null
 	 */
-	public String getTitle() {
-		return title;
+	public String getLocalId() {
+		return numac(justel);
 	}
 
 	/**
-	 * Set title
+	 * Get title
 	 * 
-	 * @param title title
+	 * @return title
 	 */
-	public void setTitle(String title) {
-		this.title = title;
+	public String getTitle() {
+		return title;
 	}
 	
 	/**
@@ -106,15 +153,6 @@ public class LegalDoc {
 	public String getLang() {
 		return lang;
 	}
-
-	/**
-	 * Set language code
-	 * 
-	 * @param lang language code
-	 */
-	public void setLang(String lang) {
-		this.lang = lang;
-	}
 	
 	/**
 	 * Get source of document (ministry, parliament...)
@@ -125,91 +163,180 @@ public class LegalDoc {
 		return source;
 	}
 
-	/**
-	 * Set source of document (ministry, parliament...)
-	 * 
-	 * @param source source
-	 */
-	public void setSource(String source) {
-		this.source = source;
-	}
-
 	/**
 	 * Get link to publication in SB/MB
 	 * 
-	 * @return URL 
+	 * @return URL as string
 	 */
-	public URL getSbmb() {
+	public String getSbmb() {
 		return sbmb;
 	}
 
 	/**
-	 * Set link to publication in SB/MB
+	 * Get link to publication in Justel
 	 * 
-	 * @param sbmb URL
+	 * @return URL as string
 	 */
-	public void setSbmb(URL sbmb) {
-		this.sbmb = sbmb;
+	public String getJustel() {
+		return justel;
 	}
 
 	/**
-	 * Get link to publication in Justel
+	 * Get publication date
 	 * 
-	 * @return URL
+	 * @return date or null
 	 */
-	public URL getJustel() {
-		return justel;
+	public LocalDate getPubDate() {
+		return toDate(pubDay);
 	}
 
 	/**
-	 * Set link to publication in Justel
+	 * Get publication date as epoch day
 	 * 
-	 * @param justel URL
+	 * @return epoch day or NO_DATE
 	 */
-	public void setJustel(URL justel) {
-		this.justel = justel;
+	public int getPubDay() {
+		return pubDay;
 	}
 
 	/**
-	 * Get publication date
+	 * Get document approval date
 	 * 
-	 * @return date
+	 * @return date or null
 	 */
-	public LocalDate getPubDate() {
-		return pubDate;
+	public LocalDate getDocDate() {
+		return toDate(docDay);
 	}
 
 	/**
-	 * Set publication date
+	 * Get document approval date as epoch day
 	 * 
-	 * @param pubDate date
+	 * @return epoch day or NO_DATE
 	 */
-	public void setPubDate(LocalDate pubDate) {
-		this.pubDate = pubDate;
+	public int getDocDay() {
+		return docDay;
 	}
 
 	/**
-	 * Get document approval date
-	 * 
-	 * @return date 
+	 * Builder, used while parsing a row
 	 */
-	public LocalDate getDocDate() {
-		return docDate;
+	public static class Builder {
+		private String title;
+		private String source;
+		private String lang;
+		private String sbmb;
+		private String justel;
+		private int pubDay = NO_DATE;
+		private int docDay = NO_DATE;
+
+		/**
+		 * Set title
+		 * 
+		 * @param title title
+		 * @return builder
+		 */
+		public Builder title(String title) {
+			this.title = title;
+			return this;
+		}
+
+		/**
+		 * Set source of document (ministry, parliament...)
+		 * 
+		 * @param source source
+		 * @return builder
+		 */
+		public Builder source(String source) {
+			this.source = source;
+			return this;
+		}
+
+		/**
+		 * Set language code
+		 * 
+		 * @param lang language code
+		 * @return builder
+		 */
+		public Builder lang(String lang) {
+			this.lang = lang;
+			return this;
+		}
+
+		/**
+		 * Set link to publication in SB/MB
+		 * 
+		 * @param sbmb URL as string
+		 * @return builder
+		 */
+		public Builder sbmb(String sbmb) {
+			this.sbmb = sbmb;
+			return this;
+		}
+
+		/**
+		 * Set link to publication in Justel
+		 * 
+		 * @param justel URL as string
+		 * @return builder
+		 */
+		public Builder justel(String justel) {
+			this.justel = justel;
+			return this;
+		}
+
+		/**
+		 * Get link to publication in Justel
+		 * 
+		 * @return URL as string or null
+		 */
+		public String justel() {
+			return justel;
+		}
+
+		/**
+		 * Set publication date
+		 * 
+		 * @param pubDay epoch day or NO_DATE
+		 * @return builder
+		 */
+		public Builder pubDay(int pubDay) {
+			this.pubDay = pubDay;
+			return this;
+		}
+
+		/**
+		 * Set document approval date
+		 * 
+		 * @param docDay epoch day or NO_DATE
+		 * @return builder
+		 */
+		public Builder docDay(int docDay) {
+			this.docDay = docDay;
+			return this;
+		}
+
+		/**
+		 * Build immutable legal document
+		 * 
+		 * @return legal document
+		 */
+		public LegalDoc build() {
+			return new LegalDoc(this);
+		}
 	}
 
 	/**
-	 * Set document approval date
+	 * Constructor
 	 * 
-	 * @param docDate date
+	 * @param b builder
 	 */
-	public void setDocDate(LocalDate docDate) {
-		this.docDate = docDate;
-	}
-	
-	public void setDesc(LocalDate docDate, String title, LocalDate pubDate, String source) {
-		setTitle(title);
-		setDocDate(docDate);
-		setPubDate(pubDate);
-		setSource(source);
+	private LegalDoc(Builder b) {
+		this.title = b.title;
+		this.source = (b.source != null) ? b.source.intern() : null;
+		this.lang = (b.lang != null) ? b.lang.intern() : null;
+		this.sbmb = b.sbmb;
+		this.justel = b.justel;
+		this.pubDay = b.pubDay;
+		this.docDay = b.docDay;
 	}
 }
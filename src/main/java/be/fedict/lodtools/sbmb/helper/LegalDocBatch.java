@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Columnar batch of legal documents, typically all documents of one type and year.
+ * 
+ * Every field is stored in its own array, repeating values (source, language) 
+ * are stored once in a shared dictionary and referred to by their position.
+ * 
+ * @author Bart.Hanssens
+ */
+public class LegalDocBatch implements Iterable<LegalDoc> {
+	private final static int NONE = -1;
+	
+	private final List<String> dict = new ArrayList<>();
+	private final Map<String,Integer> codes = new HashMap<>();
+	
+	private int size = 0;
+	private String[] titles;
+	private String[] sbmbs;
+	private String[] justels;
+	private int[] sources;
+	private int[] langs;
+	private int[] pubDays;
+	private int[] docDays;
+
+	/**
+	 * Get dictionary code of a string, adding it when needed
+	 * 
+	 * @param str string or null
+	 * @return code or NONE
+	 */
+	private int encode(String str) {
+		if (str == null) {
+			return NONE;
+		}
+		Integer code = codes.get(str);
+		if (code == null) {
+			code = dict.size();
+			dict.add(str);
+			codes.put(str, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Get string from dictionary
+	 * 
+	 * @param code code or NONE
+	 * @return string or null
+	 */
+	private String decode(int code) {
+		return (code != NONE) ? dict.get(code) : null;
+	}
+
+	/**
+	 * Make sure there is room for at least one more row
+	 */
+	private void grow() {
+		if (size < titles.length) {
+			return;
+		}
+		int len = Math.max(16, titles.length * 2);
+		titles = Arrays.copyOf(titles, len);
+		sbmbs = Arrays.copyOf(sbmbs, len);
+		justels = Arrays.copyOf(justels, len);
+		sources = Arrays.copyOf(sources, len);
+		langs = Arrays.copyOf(langs, len);
+		pubDays = Arrays.copyOf(pubDays, len);
+		docDays = Arrays.copyOf(docDays, len);
+	}
+
+	/**
+	 * Add a row
+	 * 
+	 * @param title title
+	 * @param source source or null
+	 * @param lang language code
+	 * @param sbmb link to SB/MB or null
+	 * @param justel link to Justel
+	 * @param pubDay publication date as epoch day
+	 * @param docDay document date as epoch day
+	 */
+	public void add(String title, String source, String lang, String sbmb, String justel,
+						int pubDay, int docDay) {
+		grow();
+		titles[size] = title;
+		sources[size] = encode(source);
+		langs[size] = encode(lang);
+		sbmbs[size] = sbmb;
+		justels[size] = justel;
+		pubDays[size] = pubDay;
+		docDays[size] = docDay;
+		size++;
+	}
+
+	/**
+	 * Add a legal document
+	 * 
+	 * @param doc legal document
+	 */
+	public void add(LegalDoc doc) {
+		add(doc.getTitle(), doc.getSource(), doc.getLang(), doc.getSbmb(), doc.getJustel(),
+			doc.getPubDay(), doc.getDocDay());
+	}
+
+	/**
+	 * Get number of rows
+	 * 
+	 * @return number of rows
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get identifier, derived from the Justel link
+	 * 
+	 * @param row row number
+	 * @return identifier
+	 */
+	public String getId(int row) {
+		return LegalDoc.toId(justels[row]);
+	}
+
+	/**
+	 * Get local identifier ("NUMAC"), derived from the Justel link
+	 * 
+	 * @param row row number
+	 * @return identifier
+	 */
+	public String getLocalId(int row) {
+		return LegalDoc.numac(justels[row]);
+	}
+
+	/**
+	 * Get title
+	 * 
+	 * @param row row number
+	 * @return title
+	 */
+	public String getTitle(int row) {
+		return titles[row];
+	}
+
+	/**
+	 * Get source of document
+	 * 
+	 * @param row row number
+	 * @return source or null
+	 */
+	public String getSource(int row) {
+		return decode(sources[row]);
+	}
+
+	/**
+	 * Get language code
+	 * 
+	 * @param row row number
+	 * @return language code
+	 */
+	public String getLang(int row) {
+		return decode(langs[row]);
+	}
+
+	/**
+	 * Get link to publication in SB/MB
+	 * 
+	 * @param row row number
+	 * @return URL as string or null
+	 */
+	public String getSbmb(int row) {
+		return sbmbs[row];
+	}
+
+	/**
+	 * Get link to publication in Justel
+	 * 
+	 * @param row row number
+	 * @return URL as string
+	 */
+	public String getJustel(int row) {
+		return justels[row];
+	}
+
+	/**
+	 * Get publication date as epoch day
+	 * 
+	 * @param row row number
+	 * @return epoch day or LegalDoc.NO_DATE
+	 */
+	public int getPubDay(int row) {
+		return pubDays[row];
+	}
+
+	/**
+	 * Get document date as epoch day
+	 * 
+	 * @param row row number
+	 * @return epoch day or LegalDoc.NO_DATE
+	 */
+	public int getDocDay(int row) {
+		return docDays[row];
+	}
+
+	/**
+	 * Get row as legal document
+	 * 
+	 * @param row row number
+	 * @return legal document
+	 */
+	public LegalDoc get(int row) {
+		return new LegalDoc.Builder()
+			.title(titles[row])
+			.source(getSource(row))
+			.lang(getLang(row))
+			.sbmb(sbmbs[row])
+			.justel(justels[row])
+			.pubDay(pubDays[row])
+			.docDay(docDays[row])
+			.build();
+	}
+
+	@Override
+	public Iterator<LegalDoc> iterator() {
+		return new Iterator<LegalDoc>() {
+			private int row = 0;
+
+			@Override
+			public boolean hasNext() {
+				return row < size;
+			}
+
+			@Override
+			public LegalDoc next() {
+				if (row >= size) {
+					throw new NoSuchElementException();
+				}
+				return get(row++);
+			}
+		};
+	}
+
+	/**
+	 * Get the dictionary of repeating values
+	 * 
+	 * @return unmodifiable list of strings
+	 */
+	List<String> getDictionary() {
+		return Collections.unmodifiableList(dict);
+	}
+
+	/**
+	 * Get dictionary code of the source
+	 * 
+	 * @param row row number
+	 * @return code or -1
+	 */
+	int getSourceCode(int row) {
+		return sources[row];
+	}
+
+	/**
+	 * Get dictionary code of the language
+	 * 
+	 * @param row row number
+	 * @return code or -1
+	 */
+	int getLangCode(int row) {
+		return langs[row];
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity initial number of rows
+	 */
+	public LegalDocBatch(int capacity) {
+		titles = new String[capacity];
+		sbmbs = new String[capacity];
+		justels = new String[capacity];
+		sources = new int[capacity];
+		langs = new int[capacity];
+		pubDays = new int[capacity];
+		docDays = new int[capacity];
+	}
+
+	/**
+	 * Constructor
+	 */
+	public LegalDocBatch() {
+		this(256);
+	}
+}
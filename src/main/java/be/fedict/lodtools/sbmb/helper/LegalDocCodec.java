@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Compact binary format for caching parsed legal documents.
+ * Documents are stored column by column, with a dictionary for repeating values.
+ * 
+ * The header contains the hash of the source page and the version of the parser,
+ * so cached documents are only used when both are unchanged.
+ * 
+ * @author Bart.Hanssens
+ */
+public class LegalDocCodec {
+	private final static int FORMAT = 3;
+
+	/**
+	 * Write string, null-safe
+	 * 
+	 * @param out output
+	 * @param str string or null
+	 * @throws IOException 
+	 */
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		if (str == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] b = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Read string, null-safe
+	 * 
+	 * @param in input
+	 * @return string or null
+	 * @throws IOException 
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		int len = in.readInt();
+		if (len < 0) {
+			return null;
+		}
+		byte[] b = new byte[len];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Encode batch of legal documents, column by column
+	 * 
+	 * @param docs legal documents
+	 * @param hash hash of the source page
+	 * @param version version of the parser
+	 * @return bytes
+	 * @throws IOException 
+	 */
+	public static byte[] encode(LegalDocBatch docs, String hash, int version) throws IOException {
+		int size = docs.size();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(size * 256 + 64);
+		try (DataOutputStream out = new DataOutputStream(bos)) {
+			out.writeInt(FORMAT);
+			out.writeInt(version);
+			writeString(out, hash);
+			
+			List<String> dict = docs.getDictionary();
+			out.writeInt(dict.size());
+			for (String str: dict) {
+				writeString(out, str);
+			}
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				writeString(out, docs.getTitle(i));
+			}
+			for (int i = 0; i < size; i++) {
+				writeString(out, docs.getSbmb(i));
+			}
+			for (int i = 0; i < size; i++) {
+				writeString(out, docs.getJustel(i));
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(docs.getSourceCode(i));
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(docs.getLangCode(i));
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(docs.getPubDay(i));
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(docs.getDocDay(i));
+			}
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Decode batch of legal documents
+	 * 
+	 * @param value bytes
+	 * @param hash expected hash of the source page
+	 * @param version expected version of the parser
+	 * @return batch of legal documents or null when outdated
+	 * @throws IOException 
+	 */
+	public static LegalDocBatch decode(byte[] value, String hash, int version) throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+			if (in.readInt() != FORMAT || in.readInt() != version 
+									|| !hash.equals(readString(in))) {
+				return null;
+			}
+			String[] dict = new String[in.readInt()];
+			for (int i = 0; i < dict.length; i++) {
+				dict[i] = readString(in);
+			}
+			int size = in.readInt();
+			String[] titles = new String[size];
+			for (int i = 0; i < size; i++) {
+				titles[i] = readString(in);
+			}
+			String[] sbmbs = new String[size];
+			for (int i = 0; i < size; i++) {
+				sbmbs[i] = readString(in);
+			}
+			String[] justels = new String[size];
+			for (int i = 0; i < size; i++) {
+				justels[i] = readString(in);
+			}
+			int[] sources = new int[size];
+			for (int i = 0; i < size; i++) {
+				sources[i] = in.readInt();
+			}
+			int[] langs = new int[size];
+			for (int i = 0; i < size; i++) {
+				langs[i] = in.readInt();
+			}
+			int[] pubDays = new int[size];
+			for (int i = 0; i < size; i++) {
+				pubDays[i] = in.readInt();
+			}
+			
+			LegalDocBatch docs = new LegalDocBatch(size);
+			for (int i = 0; i < size; i++) {
+				docs.add(titles[i], (sources[i] >= 0) ? dict[sources[i]] : null, 
+						(langs[i] >= 0) ? dict[langs[i]] : null,
+						sbmbs[i], justels[i], pubDays[i], in.readInt());
+			}
+			return docs;
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal N-Triples encoder, writing UTF-8 bytes into a reusable buffer.
+ * 
+ * Constant terms can be encoded once and written as-is, only variable values are escaped.
+ * The output is the same as the N-Triples writer of RDF4J: only tab, newline, carriage return, 
+ * double quote and backslash are escaped in literals, 
+ * and characters not allowed in IRIs are percent-encoded.
+ * 
+ * @author Bart.Hanssens
+ */
+public class NTriplesEncoder implements Closeable {
+	private final static int SIZE = 64 * 1024;
+	private final static byte[] END = " .\n".getBytes(StandardCharsets.US_ASCII);
+	private final static byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+	
+	private final OutputStream out;
+	private final byte[] buf = new byte[SIZE];
+	private int pos = 0;
+
+	/**
+	 * Check if a character has to be percent-encoded in an IRI
+	 * 
+	 * @param c character
+	 * @return true if it has to be encoded
+	 */
+	private static boolean isUnsafe(char c) {
+		if (c <= 0x20 || (c >= 0x7F && c <= 0x9F)) {
+			return true;
+		}
+		switch (c) {
+			case '"': case '<': case '>': case '\\': case '^': case '`': case '{': case '|': case '}':
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Encode IRI, including the angle brackets
+	 * 
+	 * @param iri IRI as string
+	 * @return bytes
+	 */
+	public static byte[] iri(String iri) {
+		return iri(iri, "");
+	}
+
+	/**
+	 * Encode IRI with an additional suffix (e.g. a path), including the angle brackets
+	 * 
+	 * @param iri IRI as string
+	 * @param suffix suffix
+	 * @return bytes
+	 */
+	public static byte[] iri(String iri, String suffix) {
+		StringBuilder sb = new StringBuilder(iri.length() + suffix.length() + 2);
+		sb.append('<');
+		escapeIRI(sb, iri);
+		escapeIRI(sb, suffix);
+		sb.append('>');
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Percent-encode characters that are not allowed in an IRI
+	 * 
+	 * @param sb string builder
+	 * @param str string
+	 */
+	private static void escapeIRI(StringBuilder sb, String str) {
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (isUnsafe(c)) {
+				sb.append('%').append(Integer.toHexString(c).toUpperCase());
+			} else {
+				sb.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Encode the part after a literal value: language tag or datatype
+	 * 
+	 * @param lang language code or null
+	 * @param datatype datatype IRI or null (for plain strings)
+	 * @return bytes
+	 */
+	public static byte[] suffix(String lang, String datatype) {
+		if (lang != null) {
+			return ("@" + lang).getBytes(StandardCharsets.UTF_8);
+		}
+		if (datatype != null) {
+			byte[] dt = iri(datatype);
+			byte[] b = new byte[dt.length + 2];
+			b[0] = '^';
+			b[1] = '^';
+			System.arraycopy(dt, 0, b, 2, dt.length);
+			return b;
+		}
+		return new byte[0];
+	}
+
+	/**
+	 * Write buffer to output stream
+	 * 
+	 * @throws IOException 
+	 */
+	private void drain() throws IOException {
+		out.write(buf, 0, pos);
+		pos = 0;
+	}
+
+	/**
+	 * Write bytes
+	 * 
+	 * @param b bytes
+	 * @throws IOException 
+	 */
+	private void write(byte[] b) throws IOException {
+		if (pos + b.length > SIZE) {
+			drain();
+			if (b.length > SIZE) {
+				out.write(b);
+				return;
+			}
+		}
+		System.arraycopy(b, 0, buf, pos, b.length);
+		pos += b.length;
+	}
+
+	/**
+	 * Write one byte
+	 * 
+	 * @param b byte
+	 * @throws IOException 
+	 */
+	private void write(int b) throws IOException {
+		if (pos == SIZE) {
+			drain();
+		}
+		buf[pos++] = (byte) b;
+	}
+
+	/**
+	 * Write literal value as UTF-8, escaping special characters
+	 * 
+	 * @param str value
+	 * @throws IOException 
+	 */
+	private void writeEscaped(String str) throws IOException {
+		int len = str.length();
+		for (int i = 0; i < len; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				switch (c) {
+					case '\t': write('\\'); write('t'); break;
+					case '\n': write('\\'); write('n'); break;
+					case '\r': write('\\'); write('r'); break;
+					case '"': write('\\'); write('"'); break;
+					case '\\': write('\\'); write('\\'); break;
+					default: write(c);
+				}
+			} else if (c < 0x800) {
+				write(0xC0 | (c >> 6));
+				write(0x80 | (c & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				if (!Character.isHighSurrogate(c) || i + 1 >= len 
+						|| !Character.isLowSurrogate(str.charAt(i + 1))) {
+					throw new MalformedInputException(1);
+				}
+				int cp = Character.toCodePoint(c, str.charAt(++i));
+				write(0xF0 | (cp >> 18));
+				write(0x80 | ((cp >> 12) & 0x3F));
+				write(0x80 | ((cp >> 6) & 0x3F));
+				write(0x80 | (cp & 0x3F));
+			} else {
+				write(0xE0 | (c >> 12));
+				write(0x80 | ((c >> 6) & 0x3F));
+				write(0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * Write a statement with an IRI as object
+	 * 
+	 * @param subj encoded subject
+	 * @param pred encoded predicate
+	 * @param obj encoded object
+	 * @throws IOException 
+	 */
+	public void statement(byte[] subj, byte[] pred, byte[] obj) throws IOException {
+		write(subj);
+		write(' ');
+		write(pred);
+		write(' ');
+		write(obj);
+		write(END);
+	}
+
+	/**
+	 * Write a statement with a literal as object
+	 * 
+	 * @param subj encoded subject
+	 * @param pred encoded predicate
+	 * @param value literal value
+	 * @param suffix encoded language tag or datatype
+	 * @throws IOException 
+	 */
+	public void statement(byte[] subj, byte[] pred, String value, byte[] suffix) throws IOException {
+		write(subj);
+		write(' ');
+		write(pred);
+		write(' ');
+		write('"');
+		writeEscaped(value);
+		write('"');
+		write(suffix);
+		write(END);
+	}
+
+	/**
+	 * Write buffered bytes to the output stream
+	 * 
+	 * @throws IOException 
+	 */
+	public void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param out output stream
+	 */
+	public NTriplesEncoder(OutputStream out) {
+		this.out = out;
+	}
+}
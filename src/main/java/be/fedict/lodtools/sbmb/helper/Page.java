@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Fetched overview page, downloaded to a temporary file
+ * 
+ * @author Bart.Hanssens
+ */
+public class Page implements Closeable {
+	private final String url;
+	private final Path file;
+	private final PageMeta meta;
+	private final long latency;
+
+	/**
+	 * Get requested URL
+	 * 
+	 * @return URL as string
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Get temporary file containing the raw (ISO-8859-1 encoded) HTML
+	 * 
+	 * @return file or null when not modified
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Get cache validators
+	 * 
+	 * @return page meta
+	 */
+	public PageMeta getMeta() {
+		return meta;
+	}
+
+	/**
+	 * Get time until the response headers were received, 
+	 * not including the download of the body
+	 * 
+	 * @return time in milliseconds
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Check if the page was modified since it was last fetched
+	 * 
+	 * @return true if modified
+	 */
+	public boolean isModified() {
+		return file != null;
+	}
+
+	/**
+	 * Delete temporary file
+	 * 
+	 * @throws IOException 
+	 */
+	@Override
+	public void close() throws IOException {
+		if (file != null) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param url requested URL
+	 * @param file temporary file with raw HTML, null when not modified
+	 * @param meta cache validators
+	 * @param latency time until the response headers were received, in milliseconds
+	 */
+	public Page(String url, Path file, PageMeta meta, long latency) {
+		this.url = url;
+		this.file = file;
+		this.meta = meta;
+		this.latency = latency;
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compress and decompress cached pages.
+ * 
+ * Compressed values start with a small header (magic bytes and version).
+ * 
+ * @author Bart.Hanssens
+ */
+public class PageCodec {
+	private final static byte[] MAGIC = { 0x00, 'S', 'B' };
+	
+	public final static byte VERSION_DEFLATE = 1;
+
+	/**
+	 * Get version of the format of a cached value
+	 * 
+	 * @param value cached value
+	 * @return version
+	 * @throws IOException when the value has no valid header
+	 */
+	private static byte getVersion(byte[] value) throws IOException {
+		if (value.length <= MAGIC.length) {
+			throw new IOException("Cached value too short");
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (value[i] != MAGIC[i]) {
+				throw new IOException("Unknown cache format");
+			}
+		}
+		return value[MAGIC.length];
+	}
+
+	/**
+	 * Compress a page read from a stream
+	 * 
+	 * @param in input stream
+	 * @return value to be cached
+	 * @throws IOException 
+	 */
+	public static byte[] encode(InputStream in) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(64 * 1024);
+		bos.write(MAGIC);
+		bos.write(VERSION_DEFLATE);
+		try (OutputStream out = new DeflaterOutputStream(bos)) {
+			in.transferTo(out);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Compress a page
+	 * 
+	 * @param raw uncompressed page
+	 * @return value to be cached
+	 * @throws IOException 
+	 */
+	public static byte[] encode(byte[] raw) throws IOException {
+		return encode(new ByteArrayInputStream(raw));
+	}
+
+	/**
+	 * Get uncompressed page as stream
+	 * 
+	 * @param value cached value
+	 * @return input stream
+	 * @throws IOException when version is not supported
+	 */
+	public static InputStream open(byte[] value) throws IOException {
+		byte version = getVersion(value);
+		switch (version) {
+			case VERSION_DEFLATE:
+				int skip = MAGIC.length + 1;
+				return new InflaterInputStream(
+							new ByteArrayInputStream(value, skip, value.length - skip));
+			default:
+				throw new IOException("Unsupported cache format version " + version);
+		}
+	}
+}
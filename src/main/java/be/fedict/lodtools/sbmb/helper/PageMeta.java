@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Cache validators of a fetched page: HTTP ETag and Last-Modified, and a hash of the content
+ * 
+ * @author Bart.Hanssens
+ */
+public class PageMeta {
+	private final static char SEP = '\t';
+	
+	private final String etag;
+	private final String lastModified;
+	private final String hash;
+
+	/**
+	 * Get HTTP ETag
+	 * 
+	 * @return etag or null
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Get HTTP Last-Modified
+	 * 
+	 * @return date string or null
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Get hash of the content
+	 * 
+	 * @return hex-encoded hash or null
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	/**
+	 * Get a new SHA-256 digest
+	 * 
+	 * @return message digest
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Get hex-encoded hash from a digest
+	 * 
+	 * @param md message digest
+	 * @return hash
+	 */
+	public static String hash(MessageDigest md) {
+		byte[] digest = md.digest();
+		StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (byte d: digest) {
+			sb.append(Character.forDigit((d >> 4) & 0xF, 16))
+				.append(Character.forDigit(d & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Calculate hex-encoded SHA-256 hash
+	 * 
+	 * @param b bytes
+	 * @return hash
+	 */
+	public static String hash(byte[] b) {
+		MessageDigest md = newDigest();
+		md.update(b);
+		return hash(md);
+	}
+
+	/**
+	 * Encode as string, to be stored in the cache
+	 * 
+	 * @return string
+	 */
+	public String encode() {
+		return (etag != null ? etag : "") + SEP 
+				+ (lastModified != null ? lastModified : "") + SEP 
+				+ (hash != null ? hash : "");
+	}
+
+	/**
+	 * Decode string from the cache
+	 * 
+	 * @param str encoded string
+	 * @return page meta or null
+	 */
+	public static PageMeta decode(String str) {
+		if (str == null) {
+			return null;
+		}
+		String[] parts = str.split(String.valueOf(SEP), -1);
+		if (parts.length != 3) {
+			return null;
+		}
+		return new PageMeta(parts[0].isEmpty() ? null : parts[0], 
+							parts[1].isEmpty() ? null : parts[1],
+							parts[2].isEmpty() ? null : parts[2]);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param etag HTTP ETag
+	 * @param lastModified HTTP Last-Modified
+	 * @param hash hash of the content
+	 */
+	public PageMeta(String etag, String lastModified, String hash) {
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.hash = hash;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter, typically one per host.
+ * 
+ * Tokens are added at a fixed interval, up to the capacity of the bucket.
+ * Callers that find the bucket empty reserve a future token and wait for it,
+ * so the rate is never exceeded, even with many threads waiting.
+ * 
+ * Optionally, a random jitter of up to one interval is added to each reservation.
+ * The jitter is reserved as well, so the next token only becomes available
+ * one interval after the (jittered) start of the previous one.
+ * 
+ * @author Bart.Hanssens
+ */
+public class RateLimiter {
+	private final int capacity;
+	private final boolean jitter;
+	private long interval;
+	private double tokens;
+	private long last;
+
+	/**
+	 * Set interval between two tokens
+	 * 
+	 * @param interval interval in milliseconds
+	 */
+	public synchronized void setInterval(long interval) {
+		refill(System.nanoTime());
+		long old = this.interval;
+		this.interval = Math.max(1, TimeUnit.MILLISECONDS.toNanos(interval));
+		// keep the time at which reserved tokens are paid back, 
+		// so waiting callers are still one (new) interval after the last reservation
+		if (tokens < 0) {
+			tokens = tokens * old / this.interval;
+		}
+	}
+
+	/**
+	 * Get interval between two tokens
+	 * 
+	 * @return interval in milliseconds
+	 */
+	public synchronized long getInterval() {
+		return TimeUnit.NANOSECONDS.toMillis(interval);
+	}
+
+	/**
+	 * Add tokens for the time passed since the last refill
+	 * 
+	 * @param now current time in nanoseconds
+	 */
+	private void refill(long now) {
+		tokens = Math.min(capacity, tokens + (double) (now - last) / interval);
+		last = now;
+	}
+
+	/**
+	 * Do not hand out tokens for some time, e.g. when asked by the server
+	 * 
+	 * @param delay delay in milliseconds
+	 */
+	public synchronized void pause(long delay) {
+		refill(System.nanoTime());
+		tokens = Math.min(tokens, 0) - (double) TimeUnit.MILLISECONDS.toNanos(delay) / interval;
+	}
+
+	/**
+	 * Take a token, possibly one that will only be available in the future
+	 * 
+	 * @return time to wait before the token can be used, in nanoseconds
+	 */
+	private synchronized long reserve() {
+		refill(System.nanoTime());
+		tokens -= 1;
+		long wait = (tokens >= 0) ? 0 : (long) (-tokens * interval);
+		if (jitter) {
+			long extra = ThreadLocalRandom.current().nextLong(interval);
+			tokens -= (double) extra / interval;
+			wait += extra;
+		}
+		return wait;
+	}
+
+	/**
+	 * Block until a token is available
+	 * 
+	 * @throws InterruptedException 
+	 */
+	public void acquire() throws InterruptedException {
+		long wait = reserve();
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param interval interval between two tokens, in milliseconds
+	 * @param capacity maximum number of tokens (burst size)
+	 * @param jitter add random jitter of up to one interval
+	 */
+	public RateLimiter(long interval, int capacity, boolean jitter) {
+		this.capacity = Math.max(1, capacity);
+		this.jitter = jitter;
+		this.interval = Math.max(1, TimeUnit.MILLISECONDS.toNanos(interval));
+		this.tokens = this.capacity;
+		this.last = System.nanoTime();
+	}
+
+	/**
+	 * Constructor, without jitter
+	 * 
+	 * @param interval interval between two tokens, in milliseconds
+	 * @param capacity maximum number of tokens (burst size)
+	 */
+	public RateLimiter(long interval, int capacity) {
+		this(interval, capacity, false);
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb.helper;
+
+import org.jsoup.HttpStatusException;
+
+/**
+ * Server asked to slow down (e.g. HTTP 429 Too Many Requests), 
+ * possibly with a delay before the next request.
+ * 
+ * @author Bart.Hanssens
+ */
+public class RetryAfterException extends HttpStatusException {
+	private final static long serialVersionUID = 1L;
+
+	private final long delay;
+
+	/**
+	 * Get time to wait before the next request, as requested by the server
+	 * 
+	 * @return delay in milliseconds, or 0 when not specified
+	 */
+	public long getDelay() {
+		return delay;
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param message message
+	 * @param statusCode HTTP status code
+	 * @param url URL
+	 * @param delay time to wait in milliseconds, or 0
+	 */
+	public RetryAfterException(String message, int statusCode, String url, long delay) {
+		super(message, statusCode, url);
+		this.delay = delay;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2022, FPS BOSA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.fedict.lodtools.sbmb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Check that splitting titles gives the same results as the regular expression used before.
+ * 
+ * @author Bart.Hanssens
+ */
+public class PageParserTitleTest {
+	// regular expression used by older versions
+	private final static Pattern TITLE
+		= Pattern.compile("^((\\d{1,2}|1er)\\.? [a-zA-Z]+ \\d{4})([ ._-]+)(.+)$");
+	
+	private final static String SEPARATORS = " ._-";
+	private final static String[] BREAKS = { "\n", "\r", "\r\n", "\u0085", "\u2028", "\u2029" };
+	
+	private static List<String> titles;
+
+	/**
+	 * Split title using the regular expression
+	 * 
+	 * @param t title
+	 * @return date and title, or null when the title could not be split
+	 */
+	private static String[] splitRegex(String t) {
+		Matcher m = TITLE.matcher(t);
+		return m.matches() ? new String[] { m.group(1), m.group(4) } : null;
+	}
+
+	/**
+	 * Split title using the parser
+	 * 
+	 * @param t title
+	 * @return date and title, or null when the title could not be split
+	 */
+	private static String[] splitParser(String t) {
+		int end = PageParser.dateEnd(t);
+		int start = (end > 0) ? PageParser.titleStart(t, end) : -1;
+		return (start > 0) ? new String[] { t.substring(0, end), t.substring(start) } : null;
+	}
+
+	/**
+	 * Compare both ways of splitting a title
+	 * 
+	 * @param t title
+	 */
+	private static void assertSameSplit(String t) {
+		assertArrayEquals(splitRegex(t), splitParser(t), () -> "Different split for [" + t + "]");
+	}
+
+	@BeforeAll
+	public static void readTitles() throws IOException {
+		try (InputStream in = PageParserTitleTest.class.getResourceAsStream("/titles.txt")) {
+			assertNotNull(in, "Corpus not found");
+			String corpus = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			titles = new ArrayList<>(Arrays.asList(corpus.split("\n")));
+		}
+		assertFalse(titles.isEmpty(), "Empty corpus");
+	}
+
+	@Test
+	public void testCorpus() {
+		for (String t: titles) {
+			assertSameSplit(t);
+		}
+	}
+
+	@Test
+	public void testPrefixes() {
+		for (String t: titles) {
+			for (int i = 0; i <= t.length(); i++) {
+				assertSameSplit(t.substring(0, i));
+			}
+		}
+	}
+
+	@Test
+	public void testSeparators() {
+		for (String t: titles) {
+			int end = PageParser.dateEnd(t);
+			if (end < 0) {
+				continue;
+			}
+			for (char c: SEPARATORS.toCharArray()) {
+				assertSameSplit(t.substring(0, end) + c + t.substring(end));
+				assertSameSplit(t.substring(0, end) + c);
+				assertSameSplit(t.substring(0, end) + c + c);
+			}
+		}
+	}
+
+	@Test
+	public void testLineBreaks() {
+		for (String t: titles) {
+			for (String br: BREAKS) {
+				assertSameSplit(t + br);
+				assertSameSplit(br + t);
+				for (int i = 1; i < t.length(); i += 7) {
+					assertSameSplit(t.substring(0, i) + br + t.substring(i));
+				}
+			}
+		}
+	}
+}